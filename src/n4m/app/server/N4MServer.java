@@ -19,6 +19,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,8 +44,19 @@ public class N4MServer {
      * @throws SocketException if can't bind to given port.
      */
     public N4MServer(AppStats stats, int port, int numThreads) throws SocketException {
+        this(stats, port, Executors.newFixedThreadPool(numThreads));
+    }
+
+    /**
+     * Create N4M server that responds to queries about the given sprt server, handling them with the given pool.
+     * @param stats AppStats object to get data from
+     * @param port Port to listen for incoming requests from
+     * @param threadPool runs query handlers. If it rejects a query, the query is dropped.
+     * @throws SocketException if can't bind to given port.
+     */
+    public N4MServer(AppStats stats, int port, ExecutorService threadPool) throws SocketException {
         socket = new UDPSocketPlus(port);
-        threadPool = Executors.newFixedThreadPool(numThreads);
+        this.threadPool = threadPool;
         this.stats = stats;
     }
 
@@ -58,6 +70,9 @@ public class N4MServer {
                 threadPool.execute(() -> handlePkt(pkt));
             } catch (IOException e) {
                 LOG.log(Level.WARNING, "Error receiving UDP segment", e);
+            } catch (RejectedExecutionException e) {
+                // Like a full socket buffer: the client will retry
+                LOG.fine("Dropped query: all threads busy");
             }
         }
     }
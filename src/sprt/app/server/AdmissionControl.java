@@ -0,0 +1,223 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server;
+
+import sprt.serialization.RequestParser;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits on how much work a server takes on, plus counts of connections turned away.
+ *
+ * A server admits each accepted connection with {@link #tryAdmit()} and calls {@link #release()} when the
+ *   session ends. A connection that isn't admitted (or can't be queued) should be sent {@link #BUSY} and closed
+ *   right away, so clients over the limit fail fast instead of timing out behind a growing queue.
+ *
+ * Closing a socket with unread input resets the connection, which can make the client lose the response. So a
+ *   rejected connection's output is shut down after {@link #BUSY} is written, and its input read and dropped
+ *   until the client closes its end, for at most {@link #REJECT_DRAIN_MS}. No more than max queued connections
+ *   are drained at once (see {@link #tryDrain()}); past that, they're closed right away.
+ *
+ * Thread-safe.
+ */
+public class AdmissionControl {
+    /** Error message sent to connections that are turned away */
+    public static final String BUSY = "Server busy";
+    /** Default max number of sessions at once */
+    public static final int DEFAULT_MAX_SESSIONS = 10_000;
+    /** Default max number of connections waiting to be accepted or to get a thread */
+    public static final int DEFAULT_MAX_QUEUED = 1024;
+    /** Default max number of app sessions run over one connection: one, so keep-alive is off */
+    public static final int DEFAULT_MAX_SESSIONS_PER_CONNECTION = 1;
+    /** Max time a rejected connection is kept open, after {@link #BUSY} is sent, to drain what its client sent */
+    public static final long REJECT_DRAIN_MS = 1000;
+
+    private final int maxSessions;
+    private final int maxQueued;
+    private final int maxRequestSize;
+    private final int maxSessionsPerConnection;
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final AtomicLong rejectedSessions = new AtomicLong();
+    private final AtomicLong rejectedQueued = new AtomicLong();
+    private final AtomicInteger draining = new AtomicInteger();
+
+    /**
+     * Creates limits with the default values.
+     */
+    public AdmissionControl() {
+        this(DEFAULT_MAX_SESSIONS, DEFAULT_MAX_QUEUED, RequestParser.DEFAULT_MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * Creates limits with the given values, and keep-alive off.
+     * @param maxSessions max number of sessions at once
+     * @param maxQueued max number of connections waiting: the listen backlog, and, for servers that hand
+     *                  connections to a fixed set of threads, the number waiting for a thread
+     * @param maxRequestSize max bytes in one request, which bounds what each connection buffers
+     * @throws IllegalArgumentException if any limit is not positive
+     */
+    public AdmissionControl(int maxSessions, int maxQueued, int maxRequestSize) {
+        this(maxSessions, maxQueued, maxRequestSize, DEFAULT_MAX_SESSIONS_PER_CONNECTION);
+    }
+
+    /**
+     * Creates limits with the given values.
+     *
+     * With more than one session per connection (keep-alive), a connection isn't closed when an app finishes;
+     *   the server waits for another initial request on it instead, until the connection has run
+     *   maxSessionsPerConnection apps. The wait is bounded by the server's idle timeout.
+     * @param maxSessions max number of sessions at once
+     * @param maxQueued max number of connections waiting: the listen backlog, and, for servers that hand
+     *                  connections to a fixed set of threads, the number waiting for a thread
+     * @param maxRequestSize max bytes in one request, which bounds what each connection buffers
+     * @param maxSessionsPerConnection max number of app sessions run, one after another, over one connection
+     * @throws IllegalArgumentException if any limit is not positive
+     */
+    public AdmissionControl(int maxSessions, int maxQueued, int maxRequestSize, int maxSessionsPerConnection) {
+        if (maxSessions <= 0 || maxQueued <= 0 || maxRequestSize <= 0 || maxSessionsPerConnection <= 0)
+            throw new IllegalArgumentException("Limits must be positive");
+        this.maxSessions = maxSessions;
+        this.maxQueued = maxQueued;
+        this.maxRequestSize = maxRequestSize;
+        this.maxSessionsPerConnection = maxSessionsPerConnection;
+    }
+
+    /**
+     * Admits a new session if there are fewer than the max. Counts a rejection if not.
+     * @return true if admitted; the caller must call {@link #release()} when the session ends
+     */
+    public boolean tryAdmit() {
+        while (true) {
+            int active = activeSessions.get();
+            if (active >= maxSessions) {
+                rejectedSessions.incrementAndGet();
+                return false;
+            }
+            if (activeSessions.compareAndSet(active, active + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Ends an admitted session.
+     */
+    public void release() {
+        activeSessions.decrementAndGet();
+    }
+
+    /**
+     * Counts an admitted connection that was turned away because the queue for threads was full (or, with a
+     *   thread per connection, because all the threads allowed were in use). The caller must still
+     *   {@link #release()} it.
+     */
+    public void queueFull() {
+        rejectedQueued.incrementAndGet();
+    }
+
+    /**
+     * Starts draining a rejected connection if fewer than max queued are being drained.
+     * @return true if the connection may be drained; the caller must call {@link #drained()} when it's closed.
+     *   If false, the connection should be closed right away.
+     */
+    public boolean tryDrain() {
+        while (true) {
+            int current = draining.get();
+            if (current >= maxQueued)
+                return false;
+            if (draining.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Ends the draining of a rejected connection.
+     */
+    public void drained() {
+        draining.decrementAndGet();
+    }
+
+    /**
+     * Creates a parser for one connection's requests, limited to the max request size.
+     * @return new parser
+     */
+    public RequestParser newParser() {
+        return new RequestParser(maxRequestSize);
+    }
+
+    /**
+     * Gets the max number of sessions at once.
+     * @return max sessions
+     */
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * Gets the max number of waiting connections.
+     * @return max queued
+     */
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * Gets the max bytes in one request.
+     * @return max request size
+     */
+    public int getMaxRequestSize() {
+        return maxRequestSize;
+    }
+
+    /**
+     * Gets the max number of app sessions run over one connection. More than one means keep-alive is on.
+     * @return max sessions per connection
+     */
+    public int getMaxSessionsPerConnection() {
+        return maxSessionsPerConnection;
+    }
+
+    /**
+     * Gets the number of sessions admitted and not yet released.
+     * @return active sessions
+     */
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    /**
+     * Gets the number of rejected connections being drained.
+     * @return connections draining
+     */
+    public int getDraining() {
+        return draining.get();
+    }
+
+    /**
+     * Gets the number of connections turned away because there were already max sessions.
+     * @return rejections for too many sessions
+     */
+    public long getRejectedSessions() {
+        return rejectedSessions.get();
+    }
+
+    /**
+     * Gets the number of connections turned away because the queue for threads was full.
+     * @return rejections for a full queue
+     */
+    public long getRejectedQueued() {
+        return rejectedQueued.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionControl[active=" + getActiveSessions() + "/" + maxSessions
+                + ", rejectedSessions=" + getRejectedSessions() + ", rejectedQueued=" + getRejectedQueued() + "]";
+    }
+}
@@ -0,0 +1,220 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server;
+
+import java.io.IOException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static shared.app.AppUtil.logToFile;
+
+/**
+ * Maps app names to factories for the apps.
+ *
+ * An app named (name) is the class sprt.app.server.apps.(name).(name), which must extend ServerApp and have a
+ *   public no-arg constructor. The default registry finds apps by scanning that package on the class path
+ *   (directories and jars) when it's first used, and resolves each one's constructor to a factory lambda then,
+ *   so creating an app is one hash lookup and a constructor call.
+ *
+ * When the scan succeeds, its result is taken as complete: a name it didn't find is not an app, so a flood of
+ *   bad names costs one hash lookup each, and loads no classes and stores nothing. Only if the scan failed is
+ *   a name it didn't find looked up by class name, and the factory cached if it's an app.
+ */
+public final class AppRegistry {
+    private static final Logger LOG = logToFile(AppRegistry.class, "connections.log");
+    private static final String APPS_PACKAGE = "sprt.app.server.apps";
+
+    // Package holding the apps, each in its own subpackage
+    private final String appsPackage;
+    // Factory for each app found
+    private final ConcurrentHashMap<String, Supplier<ServerApp>> factories = new ConcurrentHashMap<>();
+    // Names of apps found by the scan
+    private final Set<String> scannedNames;
+    // Whether the scan looked everywhere the apps could be, so names it didn't find aren't apps
+    private final boolean scanComplete;
+
+    // Holds the default registry, so it's created when first used
+    private static class DefaultHolder {
+        static final AppRegistry INSTANCE = new AppRegistry(APPS_PACKAGE);
+    }
+
+    /**
+     * Gets the registry of apps on the class path, scanning for them if this is the first call.
+     * @return default registry
+     */
+    public static AppRegistry getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Creates a registry of the apps in the given package, scanning the class path for them. An app named
+     *   (name) is the class (appsPackage).(name).(name).
+     * @param appsPackage package holding the apps
+     * @throws NullPointerException if appsPackage is null
+     */
+    public AppRegistry(String appsPackage) {
+        if (appsPackage == null)
+            throw new NullPointerException("Apps package must not be null");
+        this.appsPackage = appsPackage;
+        var found = new TreeSet<String>();
+        scanComplete = scanAppNames(appsPackage.replace('.', '/'), found);
+        var names = new TreeSet<String>();
+        for (var name : found) {
+            var factory = resolve(name);
+            if (factory != null) {
+                factories.put(name, factory);
+                names.add(name);
+            }
+        }
+        scannedNames = Collections.unmodifiableSet(names);
+        LOG.info("Found apps in " + appsPackage + ": " + scannedNames
+                + (scanComplete ? "" : " (scan incomplete; looking up other names by class)"));
+    }
+
+    /**
+     * Creates a new instance of the named app.
+     * @param name name of app
+     * @return new app, or Optional.empty if there's no app with that name (or it can't be created)
+     */
+    public Optional<ServerApp> newApp(String name) {
+        var factory = factories.get(name);
+        if (factory == null && !scanComplete)
+            factory = resolveLate(name);
+        if (factory == null) {
+            LOG.fine(() -> "Invalid app name: " + name);
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(factory.get());
+        }
+        catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Couldn't create app " + name, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Gets the names of the apps found when the registry was created.
+     * @return unmodifiable set of app names
+     */
+    public Set<String> getAppNames() {
+        return scannedNames;
+    }
+
+    /**
+     * Indicates whether the scan looked everywhere the apps could be. If not, names it didn't find are looked
+     *   up by class name when requested.
+     * @return whether the scan was complete
+     */
+    public boolean isScanComplete() {
+        return scanComplete;
+    }
+
+    // Looks up a name the scan didn't find (only used if the scan failed), and caches it if it's an app
+    private Supplier<ServerApp> resolveLate(String name) {
+        var factory = resolve(name);
+        if (factory == null)
+            return null;
+        var existing = factories.putIfAbsent(name, factory);
+        return existing != null ? existing : factory;
+    }
+
+    // Gets a factory for the named app, or null if there's no such app
+    @SuppressWarnings("unchecked")
+    private Supplier<ServerApp> resolve(String name) {
+        Class<?> clazz;
+        try {
+            clazz = Class.forName(appsPackage + "." + name + "." + name);
+        } catch (ClassNotFoundException | NoClassDefFoundError e) {
+            return null;
+        }
+        if (!ServerApp.class.isAssignableFrom(clazz) || Modifier.isAbstract(clazz.getModifiers())) {
+            LOG.warning("App is not a concrete ServerApp: " + clazz);
+            return null;
+        }
+
+        try {
+            var lookup = MethodHandles.lookup();
+            var constructor = lookup.findConstructor(clazz, MethodType.methodType(void.class));
+            var site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class), constructor, MethodType.methodType(clazz));
+            return (Supplier<ServerApp>) site.getTarget().invoke();
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            LOG.log(Level.WARNING, "App has no public no-arg constructor: " + clazz, e);
+            return null;
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Couldn't make factory for app " + clazz, e);
+            return null;
+        }
+    }
+
+    // Adds the names of subpackages of the apps package that hold a class of the same name. Returns whether every
+    //   location of the package could be scanned (and there was at least one).
+    private static boolean scanAppNames(String appsPath, Set<String> names) {
+        boolean complete = false;
+        try {
+            var urls = AppRegistry.class.getClassLoader().getResources(appsPath);
+            complete = urls.hasMoreElements();
+            while (urls.hasMoreElements()) {
+                var url = urls.nextElement();
+                switch (url.getProtocol()) {
+                    case "file" -> scanDirectory(url, names);
+                    case "jar" -> scanJar(url, appsPath, names);
+                    default -> {
+                        LOG.warning("Can't scan for apps in " + url);
+                        complete = false;
+                    }
+                }
+            }
+        } catch (IOException | URISyntaxException e) {
+            LOG.log(Level.WARNING, "Couldn't scan for apps", e);
+            complete = false;
+        }
+        return complete;
+    }
+
+    private static void scanDirectory(URL url, Set<String> names) throws IOException, URISyntaxException {
+        try (var dirs = Files.list(Path.of(url.toURI()))) {
+            dirs.filter(dir -> Files.isRegularFile(dir.resolve(dir.getFileName() + ".class")))
+                    .forEach(dir -> names.add(dir.getFileName().toString()));
+        }
+    }
+
+    private static void scanJar(URL url, String appsPath, Set<String> names) throws IOException {
+        var connection = (JarURLConnection) url.openConnection();
+        connection.setUseCaches(false);
+        try (var jar = connection.getJarFile()) {
+            var prefix = appsPath + "/";
+            jar.stream().map(entry -> entry.getName())
+                    .filter(entry -> entry.startsWith(prefix) && entry.endsWith(".class"))
+                    .map(entry -> entry.substring(prefix.length(), entry.length() - ".class".length()))
+                    .forEach(path -> {
+                        // Expecting (name)/(name)
+                        int slash = path.indexOf('/');
+                        if (slash > 0 && path.substring(slash + 1).equals(path.substring(0, slash)))
+                            names.add(path.substring(0, slash));
+                    });
+        }
+    }
+}
@@ -8,13 +8,16 @@
 
 package sprt.app.server;
 
-import sprt.serialization.NIODeframer;
+import sprt.serialization.Request;
+import sprt.serialization.RequestParser;
+import sprt.serialization.ValidationException;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
@@ -32,111 +35,485 @@ import static shared.app.AppUtil.logToFile;
 public class AsyncServerSocketChannelWrapper implements AutoCloseable {
     private static final Logger LOG = logToFile(AsyncServerSocketChannelWrapper.class, "connections.log");
     private final static int BUF_SIZE = 1024;
-    private final static int TIMEOUT_SECONDS = 20;
+    // Size of the heap buffer an idle peer waits to read into. Big enough for most whole requests.
+    private final static int PROBE_SIZE = 64;
+    // Time a peer may go without I/O progress before it's closed
+    private final static int IDLE_TIMEOUT_MS = 20 * 1000;
+    // Passed as the timeout of channel operations; deadlines are tracked by the timing wheel instead
+    private final static long NO_TIMEOUT = 0;
+    // Max bytes and number of responses held back to be written with a later one
+    private final static int MAX_HELD_BYTES = 8 * 1024;
+    private final static int MAX_HELD_RESPONSES = 64;
     // Underlying channel to use
     private final AsynchronousServerSocketChannel ch;
+    // Supplies peers' read and write buffers
+    private final BufferPool bufferPool = new BufferPool();
+    // Limits the listen backlog and peers' request size
+    private final AdmissionControl admission;
+    // Idle, request, and session deadlines of every peer
+    private final TimingWheel timers = new TimingWheel(IDLE_TIMEOUT_MS);
 
     /**
      * Wraps an AsynchronousSocketChannel obtained by having a peer connect
+     *
+     * A peer holds no pooled buffer while idle. An AIO read needs a buffer the whole time it's pending, so an
+     *   idle peer waits with a small heap probe buffer; the JDK reads heap buffers through its own per-thread
+     *   direct buffer, so the probe costs no native memory. A pooled buffer is leased only when a read fills
+     *   its buffer (more bytes are likely waiting), and given back once the request is parsed. Partial
+     *   requests live in the parser; leftover bytes of the next request are moved into the probe.
+     *
+     * Peers may pipeline requests. After parsing a request, the peer parses ahead for the next one; if it has
+     *   already arrived, {@link #beginWriteCoalesced} holds the response back, to be written along with a
+     *   later one.
      */
     static class Peer implements AutoCloseable {
         // Underlying channel
         public final AsynchronousSocketChannel ch;
-        // used for channel read/write methods
-        public final ByteBuffer buf;
-        // Used to deframe incoming messages from the peer
-        private final NIODeframer deframer;
+        // Parses requests from incoming bytes as they arrive
+        private final RequestParser parser;
+        // Where leased and writeBuf come from
+        private final BufferPool pool;
+        // Small buffer reads wait in while no more bytes are expected soon
+        private final ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE).limit(0);
+        // Pooled buffer for reads while bytes are arriving quickly, or null if none is held
+        private ByteBuffer leased;
+        // Buffer being read into: probe or leased. Between reads, its remaining bytes are unparsed leftovers.
+        private ByteBuffer buf = probe;
+        // Whether the last read filled buf
+        private boolean lastReadFilled = false;
+        // Request (or what's wrong with the bytes) parsed ahead of the one last read, or null if none has arrived
+        private Request ahead;
+        private ValidationException aheadError;
+        // Holds encoded outgoing data. Leased for each write; given back when the write completes.
+        private ByteBuffer writeBuf;
+        // Responses held back to be written before the next write, or null if none. Leased; given back (like
+        //   writeBuf) when the write completes.
+        private ByteBuffer held;
+        private int numHeld = 0;
+        // Whether a read/write is in progress. A buffer must not go back to the pool while the channel may
+        //   still be using it. Guarded by this.
+        private boolean readPending = false;
+        private boolean writePending = false;
+        // Whether close() has been called. Guarded by this.
+        private boolean closed = false;
+        // Run on the first close, or null
+        private VoidFunction onClose;
+        // Closes the peer when one of its deadlines passes
+        private final TimingWheel.Timeout timeout;
 
         /**
          * Creates a new Peer that wraps the given channel.
          * @param peer channel to wrap
+         * @param pool where to lease buffers from
+         * @param parser parser for the peer's requests
+         * @param timers wheel to track the peer's deadlines in
          */
-        public Peer(AsynchronousSocketChannel peer) {
+        public Peer(AsynchronousSocketChannel peer, BufferPool pool, RequestParser parser, TimingWheel timers) {
             this.ch = peer;
-            buf = ByteBuffer.allocateDirect(BUF_SIZE);
-            deframer = new NIODeframer();
+            this.pool = pool;
+            this.parser = parser;
+            timeout = timers.add(kind -> {
+                LOG.fine(() -> "Peer timed out (" + kind + ")");
+                close();
+            });
         }
 
+        /**
+         * Sets an action to run when the peer is closed (the first time). Must be set before any I/O begins.
+         * @param onClose action to run
+         */
+        public void setOnClose(VoidFunction onClose) {
+            this.onClose = onClose;
+        }
+
+        /**
+         * Closes the channel. Buffers are given back to the pool once no I/O is using them.
+         */
         @Override
         public void close() {
+            boolean first;
+            synchronized (this) {
+                first = !closed;
+                closed = true;
+            }
+            timeout.cancel();
             try {
                 ch.close();
             }
             catch (IOException e) {
                 LOG.log(Level.WARNING, "Can't close channel", e);
             }
+            releaseUnusedBuffers();
+            if (first && onClose != null)
+                onClose.run();
         }
 
         /**
-         * Begins reading a message. When finished (according to the deframer),
-         *   the callback will be run with the data read (including delimiter).
+         * Tells the peer no more data is coming, then closes the channel once the peer hangs up. Anything it sends
+         *   meanwhile is read and dropped: closing with unread input would reset the connection, which can lose a
+         *   response the peer hasn't read yet. The wait is bounded by {@link AdmissionControl#REJECT_DRAIN_MS},
+         *   and if admission says too many connections are draining already, the channel is closed at once.
+         * @param admission limits the number of connections drained at once
+         */
+        public void shutdownAndClose(AdmissionControl admission) {
+            try {
+                ch.shutdownOutput();
+            }
+            catch (IOException e) {
+                close();
+                return;
+            }
+            if (!admission.tryDrain()) {
+                close();
+                return;
+            }
+            drain(admission, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(AdmissionControl.REJECT_DRAIN_MS));
+        }
+
+        // Reads and drops input until EOF or the deadline, then closes
+        private void drain(AdmissionControl admission, long deadlineNanos) {
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0) {
+                close();
+                admission.drained();
+                return;
+            }
+            probe.clear();
+            ch.read(probe, remainingNanos, TimeUnit.NANOSECONDS, null, new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer numRead, Void attachment) {
+                    if (numRead == -1) {
+                        close();
+                        admission.drained();
+                    }
+                    else {
+                        drain(admission, deadlineNanos);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    close();
+                    admission.drained();
+                }
+            });
+        }
+
+        // Marks the read finished; gives back buffers if the peer closed meanwhile
+        private void endRead() {
+            synchronized (this) {
+                readPending = false;
+            }
+            releaseUnusedBuffers();
+        }
+
+        // Once closed, gives back any buffer that no pending I/O is using
+        private synchronized void releaseUnusedBuffers() {
+            if (ch.isOpen())
+                return;
+            if (!readPending && leased != null) {
+                pool.release(leased);
+                leased = null;
+            }
+            if (!writePending)
+                releaseWriteBuffers();
+        }
+
+        // Gives back writeBuf and held. Must hold the lock.
+        private void releaseWriteBuffers() {
+            if (writeBuf != null) {
+                pool.release(writeBuf);
+                writeBuf = null;
+            }
+            if (held != null) {
+                pool.release(held);
+                held = null;
+                numHeld = 0;
+            }
+        }
+
+        /**
+         * Begins reading a request. Bytes are parsed as they arrive; as soon as a full request
+         *   has been parsed, the callback is run with it. If the bytes can't be a valid request,
+         *   onInvalid is run instead, as soon as the first bad byte arrives.
+         *
+         * Bytes received after the end of the request are kept for the next call.
          *
          * If the read fails, the channel will be closed.
-         * @param callback Method to run when message is obtained
+         * @param callback Method to run when request is obtained
+         * @param onInvalid Method to run if the peer sends an invalid request
+         */
+        public void beginRead(Consumer<Request> callback, Consumer<ValidationException> onInvalid) {
+            synchronized (this) {
+                if (!ch.isOpen())
+                    return;
+                readPending = true;
+            }
+            // The request may have been parsed ahead
+            if (ahead != null || aheadError != null) {
+                var request = ahead;
+                var error = aheadError;
+                ahead = null;
+                aheadError = null;
+                endRead();
+                if (request != null)
+                    callback.accept(request);
+                else
+                    onInvalid.accept(error);
+                return;
+            }
+            // Leftover bytes may already hold (part of) the request
+            continueRead(callback, onInvalid);
+        }
+
+        /**
+         * Tells whether another request (or invalid bytes) has already arrived after the one last read.
+         *   Call only between reads.
+         * @return true if the next read will finish without waiting for the peer
          */
-        public void beginRead(Consumer<byte[]> callback) {
-            buf.clear();
-            doBeginRead(callback);
+        public boolean hasPipelinedRequest() {
+            return ahead != null || aheadError != null;
+        }
+
+        // Parses buffered bytes, reading more if they don't finish a request. Runs with readPending set.
+        private void continueRead(Consumer<Request> callback, Consumer<ValidationException> onInvalid) {
+            var outcome = parseBuffered(callback, onInvalid);
+            if (outcome == null) {
+                if (!parser.isIdle())
+                    timeout.frameStarted();
+                // not full message: start another read
+                chooseReadBuffer();
+                buf.clear();
+                doBeginRead(callback, onInvalid);
+                return;
+            }
+            timeout.frameFinished();
+            keepLeftovers();
+            // The callback may start the next read, so buf must be free first
+            endRead();
+            outcome.run();
+        }
+
+        // Picks the buffer for the next read. All bytes in buf have been parsed.
+        private void chooseReadBuffer() {
+            synchronized (this) {
+                if (lastReadFilled) {
+                    if (leased == null)
+                        leased = pool.lease(BUF_SIZE);
+                    buf = leased;
+                    return;
+                }
+                if (leased != null) {
+                    pool.release(leased);
+                    leased = null;
+                }
+            }
+            buf = probe;
         }
 
-        private void doBeginRead(Consumer<byte[]> callback) {
-            ch.read(buf, TIMEOUT_SECONDS, TimeUnit.SECONDS, null, new CompletionHandler<Integer, Void>() {
+        // After a request is parsed, moves bytes of the next one into the probe so the leased buffer can go back
+        private void keepLeftovers() {
+            if (buf == probe || buf.remaining() > probe.capacity())
+                return;
+            probe.clear();
+            probe.put(buf).flip();
+            synchronized (this) {
+                pool.release(leased);
+                leased = null;
+            }
+            buf = probe;
+            lastReadFilled = false;
+        }
+
+        private void doBeginRead(Consumer<Request> callback, Consumer<ValidationException> onInvalid) {
+            ch.read(buf, NO_TIMEOUT, TimeUnit.MILLISECONDS, null, new CompletionHandler<Integer, Void>() {
                 @Override
                 public void completed(Integer numRead, Void attachment) {
                     if (numRead == -1) {
+                        endRead();
                         close();
                         return;
                     }
-                    // Add the portion of the buffer with the new data to the deframer
-                    var newData = buf.slice(buf.position() - numRead, numRead);
-                    var msg = deframer.getMessage(newData);
-                    if (msg == null) {
-                        // not full message: start another read
-                        doBeginRead(callback);
-                    }
-                    else {
-                        // full message: run user callback w/ msg
-                        callback.accept(msg);
-                    }
+                    timeout.touch();
+                    lastReadFilled = !buf.hasRemaining();
+                    buf.flip();
+                    continueRead(callback, onInvalid);
                 }
 
                 @Override
                 public void failed(Throwable exc, Void attachment) {
-                    LOG.log(Level.INFO, "Read failed", exc);
+                    endRead();
+                    // Expected if the peer was closed, e.g. for timing out
+                    LOG.log(ch.isOpen() ? Level.INFO : Level.FINE, "Read failed", exc);
                     close();
                 }
             });
         }
 
+        // Feeds the unparsed bytes in buf to the parser.
+        // Returns the callback to run, or null if all the bytes were consumed without finishing a request.
+        private Runnable parseBuffered(Consumer<Request> callback, Consumer<ValidationException> onInvalid) {
+            try {
+                var request = parser.parse(buf);
+                if (request == null)
+                    return null;
+                parseAhead();
+                return () -> callback.accept(request);
+            }
+            catch (ValidationException e) {
+                return () -> onInvalid.accept(e);
+            }
+        }
+
+        // After a request is parsed, parses the next one from the leftover bytes, if they finish one
+        private void parseAhead() {
+            if (!buf.hasRemaining())
+                return;
+            try {
+                ahead = parser.parse(buf);
+            }
+            catch (ValidationException e) {
+                aheadError = e;
+            }
+        }
+
         /**
-         * Writes the given data to the peer. When finished, runs the given callback.
+         * Leases a buffer for outgoing data, cleared and with room for at least the given number of bytes.
+         *   It is given back to the pool when a write of it completes (or the peer closes).
+         *
+         * Must not be called again until a write started with the buffer completes.
+         * @param size number of bytes that will be written
+         * @return empty write buffer
+         */
+        public ByteBuffer writeBuffer(int size) {
+            // Separate from buf, since buf may hold leftover bytes of the next request
+            synchronized (this) {
+                // Keeps close() from giving it back while it's being filled
+                writePending = true;
+                if (writeBuf != null && writeBuf.capacity() < size) {
+                    pool.release(writeBuf);
+                    writeBuf = null;
+                }
+                if (writeBuf == null)
+                    writeBuf = pool.lease(size);
+            }
+            return writeBuf.clear();
+        }
+
+        /**
+         * Writes the remaining bytes of the given buffer to the peer. When finished, runs the given callback.
          *
          * If the write fails, the channel is closed.
          * @param data data to write to peer
          * @param onCompletion callback to run when finished
          */
-        public void beginWrite(byte[] data, VoidFunction onCompletion) {
-            buf.clear();
-            buf.put(data);
-            buf.flip();
-            doBeginWrite(onCompletion);
+        public void beginWrite(ByteBuffer data, VoidFunction onCompletion) {
+            beginWrite(new ByteBuffer[] { data }, onCompletion);
+        }
+
+        /**
+         * Writes the remaining bytes of the given buffers to the peer, in order, using gathering writes, so
+         *   segments of a response don't need to be copied into one buffer first. When all have been written,
+         *   runs the given callback.
+         *
+         * Only one write may be in progress at a time. Since the callback runs only once the peer has taken
+         *   every byte, a peer that reads slowly holds up only its own session (the next request isn't read
+         *   until then) instead of making responses pile up in memory.
+         *
+         * If the write fails or times out, the channel is closed.
+         * @param data segments to write to peer. They must not be modified until the write finishes.
+         * @param onCompletion callback to run when finished
+         */
+        public void beginWrite(ByteBuffer[] data, VoidFunction onCompletion) {
+            synchronized (this) {
+                writePending = true;
+                // Held responses go first
+                if (held != null) {
+                    var withHeld = new ByteBuffer[data.length + 1];
+                    withHeld[0] = held.flip();
+                    System.arraycopy(data, 0, withHeld, 1, data.length);
+                    data = withHeld;
+                }
+            }
+            continueWrite(data, 0, onCompletion);
         }
 
-        private void doBeginWrite(VoidFunction onCompletion) {
-            ch.write(buf, TIMEOUT_SECONDS, TimeUnit.SECONDS, null, new CompletionHandler<Integer, Void>() {
+        /**
+         * Like {@link #beginWrite(ByteBuffer[], VoidFunction)}, except that if another request has already
+         *   arrived (see {@link #hasPipelinedRequest()}), the data may instead be copied and held, to be written
+         *   before the data of the next write. The callback is then run right away.
+         *
+         * Use only if another write will follow, i.e., not for a response the peer is closed after.
+         * @param data segments to write to peer
+         * @param onCompletion callback to run when finished (or held)
+         */
+        public void beginWriteCoalesced(ByteBuffer[] data, VoidFunction onCompletion) {
+            int size = 0;
+            for (var segment : data) {
+                size += segment.remaining();
+            }
+            synchronized (this) {
+                int heldSize = held == null ? 0 : held.position();
+                if (!hasPipelinedRequest() || numHeld >= MAX_HELD_RESPONSES || heldSize + size > MAX_HELD_BYTES) {
+                    // Not holding, so it's written now
+                    size = -1;
+                }
+                else {
+                    hold(data, heldSize + size);
+                    // Done with writeBuf until the next response is encoded
+                    writePending = false;
+                }
+            }
+            if (size < 0)
+                beginWrite(data, onCompletion);
+            else
+                onCompletion.run();
+        }
+
+        // Copies data to the end of held, which will then hold totalSize bytes. Must hold the lock.
+        private void hold(ByteBuffer[] data, int totalSize) {
+            if (held == null) {
+                held = pool.lease(totalSize);
+            }
+            else if (held.capacity() < totalSize) {
+                var bigger = pool.lease(totalSize);
+                bigger.put(held.flip());
+                pool.release(held);
+                held = bigger;
+            }
+            for (var segment : data) {
+                held.put(segment);
+            }
+            ++numHeld;
+        }
+
+        // Writes data starting at the first segment with bytes remaining, until all segments are drained
+        private void continueWrite(ByteBuffer[] data, int first, VoidFunction onCompletion) {
+            ch.write(data, first, data.length - first, NO_TIMEOUT, TimeUnit.MILLISECONDS, null,
+                    new CompletionHandler<Long, Void>() {
                 @Override
-                public void completed(Integer result, Void attachment) {
-                    if (buf.hasRemaining()) {
-                        doBeginWrite(onCompletion);
+                public void completed(Long result, Void attachment) {
+                    timeout.touch();
+                    // Partial write: skip the segments that were fully sent and write the rest
+                    int next = first;
+                    while (next < data.length && !data[next].hasRemaining())
+                        ++next;
+                    if (next < data.length) {
+                        continueWrite(data, next, onCompletion);
+                        return;
                     }
-                    else {
-                        buf.clear();
-                        onCompletion.run();
+                    synchronized (Peer.this) {
+                        writePending = false;
+                        releaseWriteBuffers();
                     }
+                    onCompletion.run();
                 }
 
                 @Override
                 public void failed(Throwable exc, Void attachment) {
+                    synchronized (Peer.this) {
+                        writePending = false;
+                    }
                     LOG.log(Level.INFO, "Write failed", exc);
                     close();
                 }
@@ -154,18 +531,45 @@ public class AsyncServerSocketChannelWrapper implements AutoCloseable {
     }
 
     /**
-     * Creates a new channel and binds to the given port.
+     * Creates a new channel in the default channel group and binds to the given port.
      * @param port port to bind to
      * @throws IOException If channel creation or binding fails
      */
     public AsyncServerSocketChannelWrapper(int port) throws IOException {
-        ch = AsynchronousServerSocketChannel.open();
+        this(port, null);
+    }
+
+    /**
+     * Creates a new channel in the given channel group and binds to the given port.
+     * Accepted peers' channels belong to the same group, so all completion handlers run on its threads.
+     * @param port port to bind to
+     * @param group channel group, or null for the default group
+     * @throws IOException If channel creation or binding fails
+     */
+    public AsyncServerSocketChannelWrapper(int port, AsynchronousChannelGroup group) throws IOException {
+        this(port, group, new AdmissionControl());
+    }
+
+    /**
+     * Creates a new channel in the given channel group and binds to the given port, with the given limits
+     *   on the listen backlog and on the size of peers' requests.
+     * @param port port to bind to
+     * @param group channel group, or null for the default group
+     * @param admission limits to apply
+     * @throws IOException If channel creation or binding fails
+     */
+    public AsyncServerSocketChannelWrapper(int port, AsynchronousChannelGroup group, AdmissionControl admission)
+            throws IOException
+    {
+        this.admission = admission;
+        ch = AsynchronousServerSocketChannel.open(group);
         ch.setOption(StandardSocketOptions.SO_REUSEADDR, true);
-        ch.bind(new InetSocketAddress(port));
+        ch.bind(new InetSocketAddress(port), admission.getMaxQueued());
     }
 
     @Override
     public void close() {
+        timers.close();
         try {
             ch.close();
         }
@@ -174,6 +578,14 @@ public class AsyncServerSocketChannelWrapper implements AutoCloseable {
         }
     }
 
+    /**
+     * Gets the pool that peers' buffers are leased from, e.g. for its stats.
+     * @return buffer pool
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
     /**
      * Begins accepting a new peer. When a peer connects, the callback is run.
      * The return value of the callback indicates whether to continue accepting more peers.
@@ -184,7 +596,7 @@ public class AsyncServerSocketChannelWrapper implements AutoCloseable {
         ch.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
             @Override
             public void completed(AsynchronousSocketChannel newCh, Void attachment) {
-                var peer = new Peer(newCh);
+                var peer = new Peer(newCh, bufferPool, admission.newParser(), timers);
                 boolean repeat = onNewConnection.apply(peer);
                 if (repeat)
                     beginAccept(onNewConnection);
@@ -0,0 +1,137 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server;
+
+import sprt.serialization.Request;
+import sprt.serialization.RequestParser;
+import sprt.serialization.Response;
+import sprt.serialization.ValidationException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads requests from and writes responses to a connected socket using blocking byte I/O.
+ *
+ * Bytes go straight between the socket streams and byte arrays; there is no Reader/Writer in between and
+ *   this class takes no locks, so a virtual thread blocked in {@link #read()} doesn't pin its carrier thread.
+ *   Requests are parsed incrementally with a {@link RequestParser}, so invalid input is rejected as soon as
+ *   it arrives. Not thread-safe; one thread should own each peer.
+ *
+ * Clients may pipeline requests. Responses are held and sent together when the next read would block (or
+ *   when enough have piled up), so a batch of pipelined requests is answered with one write. Call
+ *   {@link #flush()} before closing the socket.
+ */
+class BlockingPeer {
+    private static final int BUF_SIZE = 1024;
+    // Bytes of held responses that are sent right away instead of waiting for a read to block
+    private static final int FLUSH_THRESHOLD = 8 * 1024;
+
+    private final InputStream in;
+    private final OutputStream out;
+    // Bytes read from the socket. Between reads, its remaining bytes are unparsed leftovers.
+    private final ByteBuffer readBuf = ByteBuffer.allocate(BUF_SIZE).limit(0);
+    private final RequestParser parser;
+    // Told about I/O progress and request boundaries
+    private final TimingWheel.Timeout timeout;
+    // Holds encoded responses not yet sent. Grown as needed.
+    private ByteBuffer writeBuf = ByteBuffer.allocate(BUF_SIZE);
+
+    /**
+     * Creates a peer for the given socket.
+     * @param socket connected socket
+     * @param parser parser for the socket's requests
+     * @param timeout the connection's deadlines, which close the socket when they pass
+     * @throws IOException if the socket's streams can't be opened
+     */
+    BlockingPeer(Socket socket, RequestParser parser, TimingWheel.Timeout timeout) throws IOException {
+        this.parser = parser;
+        this.timeout = timeout;
+        this.in = socket.getInputStream();
+        this.out = socket.getOutputStream();
+    }
+
+    /**
+     * Reads the next request, blocking until all of it has arrived. Held responses are sent before blocking.
+     * @return request
+     * @throws ValidationException if the bytes received can't be a valid request
+     * @throws EOFException if the peer closes the connection before a full request arrives
+     * @throws IOException if I/O error occurs (including the socket being closed for timing out)
+     */
+    Request read() throws ValidationException, IOException {
+        while (true) {
+            var request = parser.parse(readBuf);
+            if (request != null) {
+                timeout.frameFinished();
+                return request;
+            }
+            if (!parser.isIdle())
+                timeout.frameStarted();
+            flush();
+            int len = in.read(readBuf.array(), 0, readBuf.capacity());
+            if (len == -1)
+                throw new EOFException("Connection closed before end of request");
+            timeout.touch();
+            readBuf.position(0).limit(len);
+        }
+    }
+
+    /**
+     * Encodes the given response and sends it, or holds it to send with later ones.
+     * @param response response to send
+     * @throws IOException if I/O error occurs
+     */
+    void write(Response response) throws IOException {
+        ensureRoom(response.encodedLength());
+        response.encode(writeBuf);
+        flushIfFull();
+    }
+
+    /**
+     * Sends an already-encoded response, or holds it to send with later ones.
+     * @param response response to send
+     * @throws IOException if I/O error occurs
+     */
+    void write(ResponseCache.Encoded response) throws IOException {
+        var encoded = response.buffer();
+        ensureRoom(encoded.remaining());
+        writeBuf.put(encoded);
+        flushIfFull();
+    }
+
+    /**
+     * Sends any held responses.
+     * @throws IOException if I/O error occurs
+     */
+    void flush() throws IOException {
+        if (writeBuf.position() == 0)
+            return;
+        out.write(writeBuf.array(), 0, writeBuf.position());
+        out.flush();
+        writeBuf.clear();
+        timeout.touch();
+    }
+
+    private void flushIfFull() throws IOException {
+        if (writeBuf.position() >= FLUSH_THRESHOLD)
+            flush();
+    }
+
+    // Grows writeBuf, keeping held responses, so it has room for len more bytes
+    private void ensureRoom(int len) {
+        if (writeBuf.remaining() >= len)
+            return;
+        var bigger = ByteBuffer.allocate(Math.max(writeBuf.position() + len, writeBuf.capacity() * 2));
+        writeBuf = bigger.put(writeBuf.flip());
+    }
+}
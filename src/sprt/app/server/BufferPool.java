@@ -0,0 +1,148 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe pool of direct buffers in power-of-2 size classes.
+ *
+ * Leasing takes a free buffer of the smallest class that fits, allocating one only if that class has none.
+ *   Released buffers go back on their class's free list (up to a limit per class), so connection churn
+ *   reuses native memory instead of waiting for GC to free it. Requests bigger than the largest class get
+ *   an unpooled buffer that is simply dropped when released.
+ */
+public class BufferPool {
+    /** Size of the smallest class */
+    public static final int MIN_CLASS_SIZE = 1024;
+    /** Size of the largest class */
+    public static final int MAX_CLASS_SIZE = 64 * 1024;
+    /** Default max free buffers kept per class */
+    public static final int DEFAULT_MAX_FREE_PER_CLASS = 1024;
+
+    // Free buffers of each class; class i holds buffers of MIN_CLASS_SIZE << i bytes
+    private final Queue<ByteBuffer>[] free;
+    // Number of buffers in each free list (ConcurrentLinkedQueue.size() is O(n))
+    private final AtomicInteger[] freeCounts;
+    private final int maxFreePerClass;
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicLong allocated = new AtomicLong();
+
+    /**
+     * Creates a pool that keeps up to {@link #DEFAULT_MAX_FREE_PER_CLASS} free buffers per class.
+     */
+    public BufferPool() {
+        this(DEFAULT_MAX_FREE_PER_CLASS);
+    }
+
+    /**
+     * Creates a pool that keeps up to the given number of free buffers per class.
+     * @param maxFreePerClass max free buffers kept per class; extras are left for GC
+     */
+    public BufferPool(int maxFreePerClass) {
+        this.maxFreePerClass = maxFreePerClass;
+        int numClasses = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE / MIN_CLASS_SIZE) + 1;
+        @SuppressWarnings("unchecked")
+        var lists = (Queue<ByteBuffer>[]) new Queue<?>[numClasses];
+        free = lists;
+        freeCounts = new AtomicInteger[numClasses];
+        for (int i = 0; i < numClasses; ++i) {
+            free[i] = new ConcurrentLinkedQueue<>();
+            freeCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Leases a cleared direct buffer with at least the given capacity. Should be given back with
+     *   {@link #release(ByteBuffer)} once nothing (including pending I/O) uses it.
+     * @param minSize min capacity
+     * @return buffer
+     */
+    public ByteBuffer lease(int minSize) {
+        inUse.incrementAndGet();
+        int cls = sizeClass(minSize);
+        if (cls < 0) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(minSize);
+        }
+        var buf = free[cls].poll();
+        if (buf == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(MIN_CLASS_SIZE << cls);
+        }
+        freeCounts[cls].decrementAndGet();
+        return buf.clear();
+    }
+
+    /**
+     * Gives back a leased buffer. It must not be used afterwards.
+     * @param buf buffer from {@link #lease(int)}
+     */
+    public void release(ByteBuffer buf) {
+        inUse.decrementAndGet();
+        int cls = sizeClass(buf.capacity());
+        // Only a direct buffer of exactly a class's size may be leased out again
+        if (cls < 0 || (MIN_CLASS_SIZE << cls) != buf.capacity() || !buf.isDirect())
+            return;
+        if (freeCounts[cls].incrementAndGet() > maxFreePerClass) {
+            freeCounts[cls].decrementAndGet();
+            return;
+        }
+        free[cls].add(buf);
+    }
+
+    /**
+     * Gets the number of buffers currently leased.
+     * @return buffers in use
+     */
+    public int getInUseCount() {
+        return inUse.get();
+    }
+
+    /**
+     * Gets the number of buffers waiting in free lists.
+     * @return free buffers
+     */
+    public int getFreeCount() {
+        int total = 0;
+        for (var count : freeCounts) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of buffers allocated since the pool was created.
+     * @return buffers allocated
+     */
+    public long getAllocatedCount() {
+        return allocated.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool[inUse=" + getInUseCount() + ", free=" + getFreeCount()
+                + ", allocated=" + getAllocatedCount() + "]";
+    }
+
+    // Gets the smallest class that holds size bytes, or -1 if too big for any class
+    private static int sizeClass(int size) {
+        if (size > MAX_CLASS_SIZE)
+            return -1;
+        if (size <= MIN_CLASS_SIZE)
+            return 0;
+        // Round up to a power of 2
+        int classSize = Integer.highestOneBit(size - 1) << 1;
+        return Integer.numberOfTrailingZeros(classSize / MIN_CLASS_SIZE);
+    }
+}
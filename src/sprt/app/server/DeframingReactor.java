@@ -0,0 +1,443 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server;
+
+import sprt.serialization.Request;
+import sprt.serialization.RequestParser;
+import sprt.serialization.Response;
+import sprt.serialization.ValidationException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static shared.app.AppUtil.logToFile;
+
+/**
+ * Reads and deframes requests for many connections on one selector thread, and hands each complete request
+ *   to a worker pool.
+ *
+ * A worker is only busy while it handles a request, never while a client trickles in the bytes of one.
+ *   Each connection has at most one request being handled: reading stops when a request is dispatched, and
+ *   resumes (starting with any bytes already buffered) once its response has been written. Workers write
+ *   responses themselves; if the socket can't take all of it, the rest is finished by the selector thread.
+ *
+ * Clients may pipeline requests; they're handled in order. Before dispatching a request, the selector thread
+ *   parses ahead for the next one. If it has already arrived, the response is held and written along with
+ *   the next, so a batch of pipelined requests is answered with one write.
+ *
+ * If the selector fails, {@link #run()} closes every connection and returns, and connections registered
+ *   afterwards are refused.
+ */
+class DeframingReactor implements Runnable {
+    private static final Logger LOG = logToFile(DeframingReactor.class, "connections.log");
+    private static final int BUF_SIZE = 1024;
+    // Bytes of held responses that are written right away instead of waiting for the next response
+    private static final int FLUSH_THRESHOLD = 8 * 1024;
+
+    /**
+     * Handles the requests of one connection. Methods are called on worker threads, one at a time per connection,
+     *   and each must end by calling {@link Conn#send} or {@link Conn#close()}.
+     */
+    interface Handler {
+        /**
+         * Handles a complete request.
+         * @param conn connection it came from
+         * @param request request
+         */
+        void onRequest(Conn conn, Request request);
+
+        /**
+         * Handles bytes that can't be a valid request.
+         * @param conn connection they came from
+         * @param e what's wrong with them
+         */
+        void onInvalid(Conn conn, ValidationException e);
+
+        /**
+         * Called once when the connection closes, on whatever thread closed it.
+         */
+        void onClose();
+    }
+
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final TimingWheel timers;
+    private final AdmissionControl admission;
+    // Connections from other threads, not yet registered with the selector
+    private final Queue<Conn> added = new ConcurrentLinkedQueue<>();
+    // Work for the selector thread from other threads: resuming reads and finishing writes
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Set once the selector thread has stopped; connections are then closed right away
+    private volatile boolean stopped = false;
+    // Sent when a request can't be queued for a worker
+    private final ResponseCache.Encoded busy;
+
+    /**
+     * Creates a reactor. Its thread must be started with {@link #run()}.
+     * @param workers runs handlers
+     * @param timers tracks connections' deadlines
+     * @param admission limits request size
+     * @param busy response sent, before closing, when the workers' queue is full
+     * @throws IOException if the selector can't be opened
+     */
+    DeframingReactor(ExecutorService workers, TimingWheel timers, AdmissionControl admission,
+                     ResponseCache.Encoded busy) throws IOException {
+        this.selector = Selector.open();
+        this.workers = workers;
+        this.timers = timers;
+        this.admission = admission;
+        this.busy = busy;
+    }
+
+    /**
+     * Starts reading requests from a connection. May be called from any thread.
+     * @param ch connected channel
+     * @param handler handles the connection's requests
+     * @throws IOException if the channel can't be made non-blocking, or the reactor has stopped
+     */
+    void register(SocketChannel ch, Handler handler) throws IOException {
+        if (stopped)
+            throw new IOException("Reactor stopped");
+        ch.configureBlocking(false);
+        added.add(new Conn(ch, handler));
+        selector.wakeup();
+        // Stopped meanwhile: nothing will take it from the queue
+        if (stopped)
+            closeAdded();
+    }
+
+    /**
+     * Reads requests until the selector fails, then closes every connection and returns.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                selector.select();
+                Conn conn;
+                while ((conn = added.poll()) != null) {
+                    try {
+                        conn.key = conn.ch.register(selector, SelectionKey.OP_READ, conn);
+                    }
+                    catch (IOException e) {
+                        LOG.log(Level.INFO, "Couldn't register connection", e);
+                        conn.close();
+                    }
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                var keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    var key = keys.next();
+                    keys.remove();
+                    conn = (Conn) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable())
+                            conn.onWritable();
+                        if (key.isValid() && key.isReadable())
+                            conn.onReadable();
+                    }
+                    catch (CancelledKeyException e) {
+                        conn.close();
+                    }
+                }
+            }
+        }
+        catch (IOException | ClosedSelectorException e) {
+            LOG.log(Level.SEVERE, "Selector failed; closing every connection", e);
+        }
+        finally {
+            stopped = true;
+            if (selector.isOpen()) {
+                for (var key : selector.keys()) {
+                    ((Conn) key.attachment()).close();
+                }
+            }
+            closeAdded();
+            try {
+                selector.close();
+            }
+            catch (IOException e) {
+                LOG.log(Level.INFO, "Couldn't close selector", e);
+            }
+        }
+    }
+
+    // Closes connections handed over after the selector thread stopped
+    private void closeAdded() {
+        Conn conn;
+        while ((conn = added.poll()) != null) {
+            conn.close();
+        }
+    }
+
+    // Runs the task on the selector thread
+    private void submit(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * One connection. Reading and parsing happen on the selector thread; handling happens on a worker.
+     */
+    final class Conn {
+        private final SocketChannel ch;
+        private final Handler handler;
+        private final TimingWheel.Timeout timeout;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        // Selector thread only
+        private SelectionKey key;
+        private final ByteBuffer readBuf = ByteBuffer.allocate(BUF_SIZE).limit(0);
+        private final RequestParser parser = admission.newParser();
+        // Work for the request parsed ahead of the one being handled, or null
+        private Runnable next;
+        // Whether the parser has seen invalid bytes; nothing after them is parsed
+        private boolean parseFailed = false;
+        // Fields below are used by the worker handling a request, then by the selector thread if the write
+        //   doesn't finish at once; never by both at the same time.
+        // Encodes responses
+        private ByteBuffer writeBuf = ByteBuffer.allocate(BUF_SIZE);
+        // Responses held back to be written with the next one. Allocated when first needed.
+        private ByteBuffer held;
+        // Whether the request being handled has another one parsed after it
+        private boolean moreBuffered;
+        private ByteBuffer[] pendingWrite;
+        private boolean closeAfterWrite;
+
+        private Conn(SocketChannel ch, Handler handler) {
+            this.ch = ch;
+            this.handler = handler;
+            timeout = timers.add(kind -> {
+                LOG.fine(() -> logPrefix() + "Client timed out (" + kind + ")");
+                close();
+            });
+        }
+
+        /**
+         * Sends an already-encoded response, then reads the next request or closes.
+         * @param response response to send
+         * @param close whether to close once it's sent
+         */
+        void send(ResponseCache.Encoded response, boolean close) {
+            write(response.buffer(), close);
+        }
+
+        /**
+         * Encodes and sends a response, then reads the next request or closes.
+         * @param response response to send
+         * @param close whether to close once it's sent
+         */
+        void send(Response response, boolean close) {
+            int len = response.encodedLength();
+            if (writeBuf.capacity() < len)
+                writeBuf = ByteBuffer.allocate(Math.max(len, writeBuf.capacity() * 2));
+            writeBuf.clear();
+            response.encode(writeBuf);
+            write(writeBuf.flip(), close);
+        }
+
+        /**
+         * Closes the connection. May be called from any thread, more than once.
+         */
+        void close() {
+            if (!closed.compareAndSet(false, true))
+                return;
+            timeout.cancel();
+            try {
+                ch.close();
+                LOG.fine(() -> logPrefix() + "Client connection closed");
+            }
+            catch (IOException e) {
+                LOG.log(Level.INFO, logPrefix() + "Couldn't close client socket", e);
+            }
+            handler.onClose();
+        }
+
+        /**
+         * Gets a prefix identifying this connection in log messages.
+         * @return log prefix
+         */
+        String logPrefix() {
+            String remoteAddress = "???";
+            try {
+                remoteAddress = String.valueOf(ch.getRemoteAddress());
+            }
+            catch (IOException e) {
+                // Leave as "???"
+            }
+            return remoteAddress + "-" + Thread.currentThread().getId() + " ";
+        }
+
+        // Holds data if another request is already waiting; otherwise, tries to write it (after any held
+        //   responses) from this (worker) thread, and the selector thread finishes it if it can't
+        private void write(ByteBuffer data, boolean close) {
+            if (moreBuffered && !close && (held == null || held.position() + data.remaining() < FLUSH_THRESHOLD)) {
+                hold(data);
+                submit(this::resume);
+                return;
+            }
+            ByteBuffer[] out = held == null || held.position() == 0
+                    ? new ByteBuffer[] { data } : new ByteBuffer[] { held.flip(), data };
+            try {
+                ch.write(out);
+            }
+            catch (IOException e) {
+                LOG.log(Level.INFO, logPrefix() + "Write failed", e);
+                close();
+                return;
+            }
+            timeout.touch();
+            if (!data.hasRemaining()) {
+                if (held != null)
+                    held.clear();
+                if (close)
+                    close();
+                else
+                    submit(this::resume);
+                return;
+            }
+            submit(() -> {
+                pendingWrite = out;
+                closeAfterWrite = close;
+                if (key.isValid())
+                    key.interestOps(SelectionKey.OP_WRITE);
+            });
+        }
+
+        // Copies data to the end of the held responses
+        private void hold(ByteBuffer data) {
+            if (held == null)
+                held = ByteBuffer.allocate(Math.max(BUF_SIZE, data.remaining()));
+            if (held.remaining() < data.remaining()) {
+                var bigger = ByteBuffer.allocate(Math.max(held.position() + data.remaining(), held.capacity() * 2));
+                held = bigger.put(held.flip());
+            }
+            held.put(data);
+        }
+
+        private void onWritable() {
+            try {
+                ch.write(pendingWrite);
+            }
+            catch (IOException e) {
+                LOG.log(Level.INFO, logPrefix() + "Write failed", e);
+                close();
+                return;
+            }
+            timeout.touch();
+            if (pendingWrite[pendingWrite.length - 1].hasRemaining())
+                return;
+            pendingWrite = null;
+            if (held != null)
+                held.clear();
+            if (closeAfterWrite)
+                close();
+            else
+                resume();
+        }
+
+        private void onReadable() {
+            int numRead;
+            readBuf.compact();
+            try {
+                numRead = ch.read(readBuf);
+            }
+            catch (IOException e) {
+                LOG.log(Level.INFO, logPrefix() + "Read failed", e);
+                close();
+                return;
+            }
+            finally {
+                readBuf.flip();
+            }
+            if (numRead == -1) {
+                close();
+                return;
+            }
+            timeout.touch();
+            parseBuffered();
+        }
+
+        // After a response is sent: handles any request already buffered, else waits for more bytes
+        private void resume() {
+            if (!key.isValid())
+                return;
+            key.interestOps(SelectionKey.OP_READ);
+            parseBuffered();
+        }
+
+        // Takes the next request from buffered bytes; if there is one, stops reading and dispatches it
+        private void parseBuffered() {
+            var work = next != null ? next : parseNext();
+            next = null;
+            if (work == null)
+                return;
+            // Look for a pipelined request after this one, so this one's response can wait to go with its
+            next = parseNext();
+            moreBuffered = next != null;
+            dispatch(work);
+        }
+
+        // Parses buffered bytes. Returns the work for the request they finish (or for invalid bytes), or null
+        //   if they don't finish one.
+        private Runnable parseNext() {
+            if (parseFailed)
+                return null;
+            Request request;
+            try {
+                request = parser.parse(readBuf);
+            }
+            catch (ValidationException e) {
+                parseFailed = true;
+                return () -> handler.onInvalid(this, e);
+            }
+            if (request == null) {
+                if (!parser.isIdle())
+                    timeout.frameStarted();
+                return null;
+            }
+            timeout.frameFinished();
+            return () -> handler.onRequest(this, request);
+        }
+
+        private void dispatch(Runnable work) {
+            key.interestOps(0);
+            try {
+                workers.execute(() -> {
+                    try {
+                        work.run();
+                    }
+                    catch (RuntimeException e) {
+                        LOG.log(Level.WARNING, logPrefix() + "Error handling request", e);
+                        close();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                admission.queueFull();
+                LOG.fine(() -> logPrefix() + "Rejected: workers busy");
+                send(busy, true);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory that names threads prefix-0, prefix-1, ... so they can be told apart in logs and thread dumps.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final boolean daemon;
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * Creates a factory for non-daemon threads with the given name prefix.
+     * @param prefix start of each thread's name
+     */
+    public NamedThreadFactory(String prefix) {
+        this(prefix, false);
+    }
+
+    /**
+     * Creates a factory for threads with the given name prefix.
+     * @param prefix start of each thread's name
+     * @param daemon whether the threads are daemon threads
+     */
+    public NamedThreadFactory(String prefix, boolean daemon) {
+        this.prefix = prefix;
+        this.daemon = daemon;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        var thread = new Thread(r, prefix + "-" + nextId.getAndIncrement());
+        thread.setDaemon(daemon);
+        return thread;
+    }
+}
@@ -0,0 +1,182 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static shared.app.AppUtil.logToFile;
+
+/**
+ * Turns away connections without resetting them: sends "Server busy", shuts down output, then reads and drops
+ *   whatever the client sends until it closes its end or {@link AdmissionControl#REJECT_DRAIN_MS} passes (see
+ *   {@link AdmissionControl}). One selector thread drains every rejected connection, so the thread that
+ *   rejects one never waits on it.
+ */
+class RejectDrainer implements Runnable {
+    private static final Logger LOG = logToFile(RejectDrainer.class, "connections.log");
+    private static final int BUF_SIZE = 1024;
+
+    // One connection being drained
+    private static final class Draining {
+        private final SocketChannel ch;
+        private final long deadlineNanos;
+        // Selector thread only
+        private boolean closed = false;
+
+        private Draining(SocketChannel ch) {
+            this.ch = ch;
+            deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(AdmissionControl.REJECT_DRAIN_MS);
+        }
+    }
+
+    private final Selector selector;
+    private final AdmissionControl admission;
+    // Connections handed over by other threads, not yet registered
+    private final Queue<Draining> added = new ConcurrentLinkedQueue<>();
+    // Selector thread only. Connections being drained, in the order added, which is also deadline order.
+    private final ArrayDeque<Draining> draining = new ArrayDeque<>();
+    // Selector thread only
+    private final ByteBuffer discard = ByteBuffer.allocate(BUF_SIZE);
+    // Set once the selector thread has stopped; connections are then closed right away
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a drainer. Its thread must be started with {@link #run()}.
+     * @param admission limits the number of connections drained at once
+     * @throws IOException if the selector can't be opened
+     */
+    RejectDrainer(AdmissionControl admission) throws IOException {
+        this.selector = Selector.open();
+        this.admission = admission;
+    }
+
+    /**
+     * Sends the response, which must fit in a new connection's send buffer, and closes the connection once it's
+     *   drained. May be called from any thread.
+     * @param ch connection to turn away. Must not be registered with a selector.
+     * @param busy response to send
+     */
+    void reject(SocketChannel ch, ResponseCache.Encoded busy) {
+        try {
+            ch.configureBlocking(false);
+            ch.write(busy.buffer());
+            ch.shutdownOutput();
+        }
+        catch (IOException e) {
+            LOG.log(Level.FINE, "Couldn't reject client", e);
+            closeQuietly(ch);
+            return;
+        }
+        if (stopped || !admission.tryDrain()) {
+            closeQuietly(ch);
+            return;
+        }
+        added.add(new Draining(ch));
+        selector.wakeup();
+        // Stopped meanwhile: nothing will take it from the queue
+        if (stopped)
+            closeAdded();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                var first = draining.peek();
+                long waitMs = first == null ? 0
+                        : Math.max(1, TimeUnit.NANOSECONDS.toMillis(first.deadlineNanos - System.nanoTime()));
+                selector.select(waitMs);
+                Draining d;
+                while ((d = added.poll()) != null) {
+                    try {
+                        d.ch.register(selector, SelectionKey.OP_READ, d);
+                        draining.add(d);
+                    }
+                    catch (IOException e) {
+                        close(d);
+                    }
+                }
+                var keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    var key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isReadable())
+                        read((Draining) key.attachment());
+                }
+                long now = System.nanoTime();
+                while ((d = draining.peek()) != null && (d.closed || d.deadlineNanos - now <= 0)) {
+                    draining.poll();
+                    close(d);
+                }
+            }
+        }
+        catch (IOException | ClosedSelectorException e) {
+            LOG.log(Level.SEVERE, "Reject drainer's selector failed; closing rejected connections at once", e);
+        }
+        finally {
+            stopped = true;
+            for (var d : draining) {
+                close(d);
+            }
+            closeAdded();
+        }
+    }
+
+    // Reads what's there; closes the connection at EOF
+    private void read(Draining d) {
+        try {
+            int numRead;
+            do {
+                numRead = d.ch.read(discard.clear());
+            } while (numRead > 0);
+            if (numRead == -1)
+                close(d);
+        }
+        catch (IOException e) {
+            close(d);
+        }
+    }
+
+    private void close(Draining d) {
+        if (d.closed)
+            return;
+        d.closed = true;
+        closeQuietly(d.ch);
+        admission.drained();
+    }
+
+    // Closes connections handed over after the selector thread stopped
+    private void closeAdded() {
+        Draining d;
+        while ((d = added.poll()) != null) {
+            closeQuietly(d.ch);
+            admission.drained();
+        }
+    }
+
+    private static void closeQuietly(SocketChannel ch) {
+        try {
+            ch.close();
+        }
+        catch (IOException e) {
+            LOG.log(Level.FINE, "Couldn't close rejected client", e);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server;
+
+import sprt.serialization.CookieList;
+import sprt.serialization.Response;
+import sprt.serialization.Status;
+import sprt.serialization.ValidationException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe cache of the encoded bytes of responses that are sent over and over, such as error frames
+ * and fixed prompts. A cached response is written as-is instead of being rebuilt, validated and encoded.
+ *
+ * Error responses preloaded with {@link #preloadErrors(String...)} are kept apart and never evicted, and
+ *   getting them takes no lock, so frames like "Server busy" stay ready under overload. Other responses go in
+ *   a bounded cache; once full, storing one evicts the least recently used. A response with cookies is encoded
+ *   but not stored: servers send each client's own cookies back, so it would rarely be asked for again, and
+ *   storing it would only push out the responses that are.
+ */
+public class ResponseCache {
+    /** Default max number of cached responses */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    // Cookie list of responses with no cookies. Never modified.
+    private static final CookieList NO_COOKIES = new CookieList();
+
+    /**
+     * Encoded bytes of a response.
+     */
+    public static final class Encoded {
+        // Encoded response. Never modified.
+        private final byte[] bytes;
+        // What was encoded, for describing it in logs
+        private final Key key;
+
+        private Encoded(Response response, Key key) {
+            var buf = ByteBuffer.allocate(response.encodedLength());
+            response.encode(buf);
+            this.bytes = buf.array();
+            this.key = key;
+        }
+
+        /**
+         * Gets a new read-only buffer over the encoded bytes, positioned at the start.
+         * @return encoded response
+         */
+        public ByteBuffer buffer() {
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+
+        /**
+         * Writes the encoded bytes to the given stream and flushes it.
+         * @param out stream to write to
+         * @throws IOException if I/O error occurs
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(bytes);
+            out.flush();
+        }
+
+        @Override
+        public String toString() {
+            // Same as the Response's
+            return "RESPONSE: " + key.status() + " " + key.function() + " " + key.message() + " " + key.cookies();
+        }
+    }
+
+    // Identifies a response by everything that goes into its encoding
+    private record Key(Status status, String function, String message, CookieList cookies) {
+        Key(Response response) {
+            this(response.getStatus(), response.getFunction(), response.getMessage(), response.getCookieList());
+        }
+    }
+
+    // Max entries in cache
+    private final int maxEntries;
+    // Preloaded error responses by message. Never evicted.
+    private final Map<String, Encoded> errors = new ConcurrentHashMap<>();
+    // In access order, least recently used first. Guarded by itself.
+    private final Map<Key, Encoded> cache;
+
+    /**
+     * Creates a cache that holds up to {@link #DEFAULT_MAX_ENTRIES} responses.
+     */
+    public ResponseCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates a cache that holds up to the given number of responses.
+     * @param maxEntries max number of cached responses
+     */
+    public ResponseCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Encoded> eldest) {
+                return size() > ResponseCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Gets the encoded bytes of the given response, caching them if they aren't already and the response has no
+     *   cookies.
+     * @param response response to encode. Later changes to it don't affect the cache.
+     * @return encoded response
+     */
+    public Encoded get(Response response) {
+        var key = new Key(response);
+        if (!key.cookies().equals(NO_COOKIES))
+            return new Encoded(response, key);
+        if (isPlainError(key)) {
+            var encoded = errors.get(key.message());
+            if (encoded != null)
+                return encoded;
+        }
+        var encoded = lookup(key);
+        if (encoded == null) {
+            // Encode outside the lock; if another thread stored it meanwhile, either copy is fine
+            encoded = new Encoded(response, key);
+            synchronized (cache) {
+                cache.putIfAbsent(key, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Gets the encoded bytes of an ERROR response with no next function, no cookies, and the given message.
+     * If it's already cached, no Response is built.
+     * @param message error message
+     * @return encoded response
+     * @throws ValidationException if message is invalid
+     */
+    public Encoded error(String message) throws ValidationException {
+        var encoded = errors.get(message);
+        if (encoded != null)
+            return encoded;
+        encoded = lookup(new Key(Status.ERROR, Response.NO_NEXT_FUNCTION, message, NO_COOKIES));
+        if (encoded != null)
+            return encoded;
+        return get(new Response(Status.ERROR, Response.NO_NEXT_FUNCTION, message));
+    }
+
+    /**
+     * Encodes the error responses with the given messages ahead of time (see {@link #error(String)}), and keeps
+     *   them for the life of the cache.
+     * @param messages error messages
+     * @return this cache
+     * @throws ValidationException if a message is invalid
+     */
+    public ResponseCache preloadErrors(String... messages) throws ValidationException {
+        for (var msg : messages) {
+            var response = new Response(Status.ERROR, Response.NO_NEXT_FUNCTION, msg);
+            errors.putIfAbsent(msg, new Encoded(response, new Key(response)));
+        }
+        return this;
+    }
+
+    /**
+     * Gets the number of cached responses, not counting preloaded errors.
+     * @return cache size
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    // Whether the response is an error like those from error(String)
+    private static boolean isPlainError(Key key) {
+        return key.status() == Status.ERROR && Response.NO_NEXT_FUNCTION.equals(key.function());
+    }
+
+    // Gets a cached response, marking it as used, or null if it isn't cached
+    private Encoded lookup(Key key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+}
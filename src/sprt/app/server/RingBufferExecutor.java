@@ -0,0 +1,323 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static shared.app.AppUtil.logToFile;
+
+/**
+ * Fixed pool of threads fed by a bounded, lock-free ring buffer, for handing work from an acceptor (or receiver)
+ *   thread to workers without the queue lock and per-task node of ThreadPoolExecutor.
+ *
+ * The ring is a multi-producer, multi-consumer queue: producers and consumers each claim a slot by advancing a
+ *   shared counter with one CAS, and each slot's sequence number says whether it's ready to be filled or taken.
+ *   A task offered to a full ring is rejected, like a ThreadPoolExecutor with a bounded queue.
+ *
+ * How an idle worker waits is set by its {@link WaitStrategy}. Tasks that throw are logged, and the worker
+ *   carries on.
+ */
+public class RingBufferExecutor extends AbstractExecutorService {
+    private static final Logger LOG = logToFile(RingBufferExecutor.class, "connections.log");
+    // Times an idle worker spins before yielding (Yield and Park)
+    private static final int SPIN_TRIES = 100;
+    // Times an idle worker yields before parking (Park)
+    private static final int YIELD_TRIES = 10;
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+
+    /**
+     * How idle workers wait for tasks
+     */
+    public enum WaitStrategy {
+        /** Spin on the ring. Lowest latency, but each idle worker keeps a CPU busy. */
+        BusySpin,
+        /** Spin briefly, then yield the CPU between checks */
+        Yield,
+        /** Spin and yield briefly, then park until a producer wakes the worker. Uses no CPU when idle. */
+        Park
+    }
+
+    // Counter on its own cache line, so the producers' and consumers' counters don't slow each other down
+    @SuppressWarnings("unused")
+    private static final class PaddedAtomicLong extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private final Runnable[] ring;
+    // Per slot: equal to the next producer position for it when empty, or that position + 1 when full
+    private final AtomicLongArray sequences;
+    private final int mask;
+    // Next position to fill
+    private final AtomicLong tail = new PaddedAtomicLong();
+    // Next position to take
+    private final AtomicLong head = new PaddedAtomicLong();
+    private final WaitStrategy waitStrategy;
+    private final Thread[] workers;
+    // Per worker: 1 if parked (or about to park) and not yet woken (Park only)
+    private final AtomicIntegerArray parked;
+    private final AtomicInteger numParked = new AtomicInteger();
+    private final AtomicInteger state = new AtomicInteger(RUNNING);
+    private final CountDownLatch terminated;
+
+    /**
+     * Creates the executor and starts its threads.
+     * @param numThreads number of worker threads
+     * @param capacity max number of tasks waiting; rounded up to a power of 2
+     * @param waitStrategy how idle workers wait
+     * @param threadFactory creates the worker threads
+     * @throws IllegalArgumentException if numThreads or capacity is not positive, or capacity is too large
+     * @throws NullPointerException if waitStrategy or threadFactory is null
+     */
+    public RingBufferExecutor(int numThreads, int capacity, WaitStrategy waitStrategy, ThreadFactory threadFactory) {
+        if (numThreads <= 0 || capacity <= 0 || capacity > 1 << 30)
+            throw new IllegalArgumentException("Invalid number of threads or capacity");
+        if (waitStrategy == null || threadFactory == null)
+            throw new NullPointerException("Wait strategy and thread factory must not be null");
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        size = Math.max(size, 1);
+        ring = new Runnable[size];
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            sequences.set(i, i);
+        }
+        this.waitStrategy = waitStrategy;
+        parked = new AtomicIntegerArray(numThreads);
+        terminated = new CountDownLatch(numThreads);
+        workers = new Thread[numThreads];
+        for (int i = 0; i < numThreads; ++i) {
+            int id = i;
+            workers[i] = threadFactory.newThread(() -> work(id));
+        }
+        for (var worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a task for a worker.
+     * @param task task to run
+     * @throws RejectedExecutionException if the ring is full or the executor is shut down
+     * @throws NullPointerException if task is null
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (task == null)
+            throw new NullPointerException("Task must not be null");
+        if (state.get() != RUNNING)
+            throw new RejectedExecutionException("Executor is shut down");
+        if (!offer(task))
+            throw new RejectedExecutionException("Ring is full");
+        if (waitStrategy == WaitStrategy.Park && numParked.get() > 0)
+            wakeOne();
+    }
+
+    /**
+     * Gets the number of slots in the ring.
+     * @return max number of tasks waiting
+     */
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * Gets the number of tasks waiting (approximately, if tasks are being added or taken).
+     * @return tasks waiting
+     */
+    public int getQueuedCount() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * Gets how idle workers wait.
+     * @return wait strategy
+     */
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    @Override
+    public void shutdown() {
+        state.compareAndSet(RUNNING, SHUTDOWN);
+        wakeAll();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        state.set(STOP);
+        var remaining = new ArrayList<Runnable>();
+        Runnable task;
+        while ((task = poll()) != null) {
+            remaining.add(task);
+        }
+        for (var worker : workers) {
+            worker.interrupt();
+        }
+        wakeAll();
+        return remaining;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return state.get() != RUNNING;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return "RingBufferExecutor[threads=" + workers.length + ", capacity=" + ring.length
+                + ", queued=" + getQueuedCount() + ", wait=" + waitStrategy + "]";
+    }
+
+    // Adds a task to the ring, or returns false if it's full
+    private boolean offer(Runnable task) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    ring[index] = task;
+                    // Publishes the task to the consumer that claims this slot
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            }
+            else if (diff < 0) {
+                // Slot still holds the task from one lap ago
+                return false;
+            }
+            else {
+                // Another producer took this position
+                pos = tail.get();
+            }
+        }
+    }
+
+    // Takes a task from the ring, or returns null if it's empty
+    private Runnable poll() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    var task = ring[index];
+                    ring[index] = null;
+                    // Frees the slot for the producer one lap ahead
+                    sequences.lazySet(index, pos + mask + 1);
+                    return task;
+                }
+                pos = head.get();
+            }
+            else if (diff < 0) {
+                // Slot not filled yet
+                return null;
+            }
+            else {
+                // Another consumer took this position
+                pos = head.get();
+            }
+        }
+    }
+
+    private boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    private void work(int id) {
+        try {
+            int idleRounds = 0;
+            while (state.get() != STOP) {
+                var task = poll();
+                if (task != null) {
+                    idleRounds = 0;
+                    try {
+                        task.run();
+                    }
+                    catch (Throwable t) {
+                        LOG.log(Level.SEVERE, "Uncaught exception in task", t);
+                    }
+                    continue;
+                }
+                if (state.get() != RUNNING && isEmpty())
+                    break;
+                idle(id, idleRounds);
+                if (idleRounds < SPIN_TRIES + YIELD_TRIES)
+                    ++idleRounds;
+            }
+        }
+        finally {
+            terminated.countDown();
+        }
+    }
+
+    // Waits a little for a task, in the way given by the wait strategy
+    private void idle(int id, int idleRounds) {
+        if (waitStrategy == WaitStrategy.BusySpin || idleRounds < SPIN_TRIES) {
+            Thread.onSpinWait();
+        }
+        else if (waitStrategy == WaitStrategy.Yield || idleRounds < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        }
+        else {
+            // Announce before the last check, so a producer adding a task after the check sees this worker
+            parked.set(id, 1);
+            numParked.incrementAndGet();
+            if (isEmpty() && state.get() == RUNNING)
+                LockSupport.park(this);
+            if (parked.compareAndSet(id, 1, 0))
+                numParked.decrementAndGet();
+        }
+    }
+
+    // Wakes a parked worker, if any
+    private void wakeOne() {
+        for (int i = 0; i < workers.length; ++i) {
+            if (parked.get(i) == 1 && parked.compareAndSet(i, 1, 0)) {
+                numParked.decrementAndGet();
+                LockSupport.unpark(workers[i]);
+                return;
+            }
+        }
+    }
+
+    private void wakeAll() {
+        for (var worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+}
@@ -12,15 +12,20 @@ import n4m.app.server.N4MServer;
 import shared.app.AppUtil;
 import sprt.serialization.*;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,8 +38,38 @@ public class Server {
     private static final Logger LOG = logToFile(Server.class, "connections.log");
     // Number of times socket.accept() is allowed to fail in a row before server gives up
     private static final int NUM_ACCEPT_TRIES = 10;
-    // Time client has to send data before it gets kicked off
+    // Time client may go without I/O progress before it gets kicked off
     private static final int TIMEOUT_MS = 20 * 1000;
+    // Fixed error messages sent to misbehaving clients
+    private static final String BAD_INITIAL_REQUEST = "Bad initial request";
+    private static final String BAD_DATA = "Bad data.";
+    private static final String UNEXPECTED_FUNCTION = "Unexpected function";
+
+    /**
+     * How client connections are given threads
+     */
+    public enum Mode {
+        /** Fixed pool of platform threads; extra connections wait for a free thread */
+        Pool,
+        /** One virtual thread per connection, with a cap on concurrent connections */
+        Virtual,
+        /** One selector thread reads requests from all connections; a fixed pool of platform threads handles
+         *  complete requests, so slow clients don't hold a thread */
+        Hybrid;
+
+        /**
+         * Gets the mode with the given name, ignoring case.
+         * @param name mode name
+         * @return matching mode, or empty if none
+         */
+        public static Optional<Mode> fromName(String name) {
+            for (var mode : values()) {
+                if (mode.name().equalsIgnoreCase(name))
+                    return Optional.of(mode);
+            }
+            return Optional.empty();
+        }
+    }
 
     protected enum Error {
         TooManyAcceptFails(0), BadArg(1);
@@ -47,22 +82,57 @@ public class Server {
 
     /**
      * Runs both a SPRT server and an N4M server with the given port and # threads.
-     * @param args port (1-65535), numThreads (1+)
+     * @param args port (1-65535), numThreads (1+), and optionally the mode (pool, virtual, or hybrid; default pool),
+     *             max sessions (1+), the pools' queue (locked, or a ring buffer with workers that wait by
+     *             busyspin, yield, or park; default locked), and max app sessions per connection (1+; default 1,
+     *             more turns on keep-alive). In virtual mode, numThreads is the max number of concurrent connections.
      */
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.out.println("Usage: Server <port> <numThreads>");
+        if (args.length < 2 || args.length > 6) {
+            System.out.println("Usage: Server <port> <numThreads> [pool|virtual|hybrid] [maxSessions] "
+                    + "[locked|busyspin|yield|park] [sessionsPerConnection]");
             return;
         }
 
         int port = AppUtil.parseIntOrExit("port", args[0], 1, 65535, Error.BadArg.code);
         int numThreads = AppUtil.parseIntOrExit("numThreads", args[1], 1, Integer.MAX_VALUE, Error.BadArg.code);
+        var mode = Mode.Pool;
+        if (args.length >= 3) {
+            var optMode = Mode.fromName(args[2]);
+            if (optMode.isEmpty()) {
+                System.err.println("Invalid mode: " + args[2]);
+                System.exit(Error.BadArg.code);
+            }
+            mode = optMode.get();
+        }
+        var admission = new AdmissionControl();
+        if (args.length >= 4) {
+            int maxSessions = AppUtil.parseIntOrExit("maxSessions", args[3], 1, Integer.MAX_VALUE, Error.BadArg.code);
+            int perConnection = args.length == 6 ? AppUtil.parseIntOrExit("sessionsPerConnection", args[5], 1,
+                    Integer.MAX_VALUE, Error.BadArg.code) : AdmissionControl.DEFAULT_MAX_SESSIONS_PER_CONNECTION;
+            admission = new AdmissionControl(maxSessions, AdmissionControl.DEFAULT_MAX_QUEUED,
+                    admission.getMaxRequestSize(), perConnection);
+        }
+        RingBufferExecutor.WaitStrategy ringWait = null;
+        if (args.length >= 5 && !args[4].equalsIgnoreCase("locked")) {
+            for (var wait : RingBufferExecutor.WaitStrategy.values()) {
+                if (wait.name().equalsIgnoreCase(args[4]))
+                    ringWait = wait;
+            }
+            if (ringWait == null) {
+                System.err.println("Invalid queue: " + args[4]);
+                System.exit(Error.BadArg.code);
+            }
+        }
 
         Server sprtServer;
         N4MServer n4mServer = null;
         try {
-            sprtServer = new Server(port, numThreads);
-            n4mServer = new N4MServer(sprtServer.appStats, port, numThreads);
+            sprtServer = new Server(port, numThreads, mode, admission, ringWait);
+            // The locked default keeps N4M's own unbounded pool, so no queries are dropped
+            n4mServer = ringWait == null ? new N4MServer(sprtServer.appStats, port, numThreads)
+                    : new N4MServer(sprtServer.appStats, port,
+                            newFixedPool("n4m-worker", numThreads, AdmissionControl.DEFAULT_MAX_QUEUED, ringWait));
         } catch (IOException e) {
             LOG.log(Level.SEVERE, "I/O error creating server instance", e);
             return;
@@ -75,57 +145,249 @@ public class Server {
     }
 
     private final ExecutorService threadPool;
+    // Limits concurrent connections in virtual mode. Null in pool mode, where the pool size is the limit.
+    private final Semaphore connectionPermits;
     private final ServerSocket socket;
+    // Caps on sessions and queued connections
+    private final AdmissionControl admission;
     private final AppStats appStats = new AppStats();
+    // Encoded error frames and cacheable app responses
+    private final ResponseCache responses = new ResponseCache();
+    // Idle, request, and session deadlines of every connection
+    private final TimingWheel timers = new TimingWheel(TIMEOUT_MS);
+    // Reads requests for the pool in hybrid mode. Null in other modes.
+    private final DeframingReactor reactor;
+    // Closes rejected connections once drained
+    private final RejectDrainer drainer;
 
     /**
-     * Creates server with the given port and # threads.
+     * Creates server with the given port and # threads, in pool mode.
      * @param port port to run on, between 1 and 65535
      * @param numThreads Size of thread pool.
      * @throws IOException if I/O error occurs.
      */
     public Server(int port, int numThreads) throws IOException {
-        socket = new ServerSocket();
+        this(port, numThreads, Mode.Pool);
+    }
+
+    /**
+     * Creates server with the given port, # threads, and mode.
+     *
+     * In virtual mode, each connection gets its own virtual thread and numThreads caps the number of
+     *   concurrent connections; connections past the cap are sent a "Server busy" error and closed.
+     *   If the runtime has no virtual threads, a new platform thread is used per connection instead.
+     *
+     * In hybrid mode, one thread reads requests from every connection, and a pool of numThreads threads only
+     *   runs apps on requests that have fully arrived. A thread is then never held by a client that is slow to
+     *   send, and numThreads doesn't limit the number of connections.
+     * @param port port to run on, between 1 and 65535
+     * @param numThreads Size of thread pool (pool and hybrid modes), or max concurrent connections (virtual mode)
+     * @param mode how connections are given threads
+     * @throws IOException if I/O error occurs.
+     */
+    public Server(int port, int numThreads, Mode mode) throws IOException {
+        this(port, numThreads, mode, new AdmissionControl());
+    }
+
+    /**
+     * Creates server with the given port, # threads, mode, and limits.
+     *
+     * Connections past the max sessions are sent a "Server busy" error and closed right away. In pool mode,
+     *   so are connections that would have to wait for a thread behind max queued others; in virtual mode,
+     *   connections past numThreads; in hybrid mode, connections whose request would have to wait behind max
+     *   queued others.
+     * @param port port to run on, between 1 and 65535
+     * @param numThreads Size of thread pool (pool and hybrid modes), or max concurrent connections (virtual mode)
+     * @param mode how connections are given threads
+     * @param admission limits on sessions, queued connections, and request size
+     * @throws IOException if I/O error occurs.
+     */
+    public Server(int port, int numThreads, Mode mode, AdmissionControl admission) throws IOException {
+        this(port, numThreads, mode, admission, null);
+    }
+
+    /**
+     * Creates server with the given port, # threads, mode, limits, and pool queue.
+     *
+     * In pool and hybrid modes, work waits for a thread in either a ThreadPoolExecutor's locked queue, or,
+     *   given a wait strategy, a lock-free {@link RingBufferExecutor} whose idle threads wait that way.
+     * @param port port to run on, between 1 and 65535
+     * @param numThreads Size of thread pool (pool and hybrid modes), or max concurrent connections (virtual mode)
+     * @param mode how connections are given threads
+     * @param admission limits on sessions, queued connections, and request size
+     * @param ringWait how a ring buffer pool's idle threads wait, or null for a ThreadPoolExecutor.
+     *                 Ignored in virtual mode.
+     * @throws IOException if I/O error occurs.
+     */
+    public Server(int port, int numThreads, Mode mode, AdmissionControl admission,
+                  RingBufferExecutor.WaitStrategy ringWait) throws IOException {
+        this.admission = admission;
+        // Sockets accepted from a channel's socket have channels, which the reactor and drainer need
+        socket = ServerSocketChannel.open().socket();
         socket.setReuseAddress(true);
-        socket.bind(new InetSocketAddress(port));
-        threadPool = Executors.newFixedThreadPool(numThreads);
+        socket.bind(new InetSocketAddress(port), admission.getMaxQueued());
+        drainer = new RejectDrainer(admission);
+        if (mode == Mode.Virtual) {
+            threadPool = newThreadPerTaskExecutor();
+            connectionPermits = new Semaphore(numThreads);
+        }
+        else {
+            threadPool = newFixedPool("sprt-worker", numThreads, admission.getMaxQueued(), ringWait);
+            connectionPermits = null;
+        }
+        try {
+            responses.preloadErrors(BAD_INITIAL_REQUEST, BAD_DATA, UNEXPECTED_FUNCTION, AdmissionControl.BUSY);
+            reactor = mode == Mode.Hybrid
+                    ? new DeframingReactor(threadPool, timers, admission, responses.error(AdmissionControl.BUSY))
+                    : null;
+        } catch (ValidationException e) {
+            throw new IllegalStateException("Invalid error message", e);
+        }
+        // Find apps now rather than on the first request
+        AppRegistry.getDefault();
     }
 
     /**
-     * Runs the server forever.
+     * Runs the server forever, or in hybrid mode until the reactor fails.
      */
     public void go() {
         LOG.info("Listening on port " + this.socket.getLocalPort());
+        if (reactor != null) {
+            new NamedThreadFactory("sprt-reactor", true).newThread(() -> {
+                reactor.run();
+                // The reactor only returns once it's failed; stop accepting connections it can't serve
+                closeSocket();
+            }).start();
+        }
+        new NamedThreadFactory("sprt-reject-drainer", true).newThread(drainer).start();
 
         while (true) {
+            Socket clientSock;
             try {
-                Socket clientSock = socket.accept();
-                threadPool.execute(() -> handleClient(clientSock));
+                clientSock = socket.accept();
             }
             catch (IOException e) {
+                if (socket.isClosed()) {
+                    LOG.severe("Server socket closed; no longer accepting connections");
+                    return;
+                }
                 LOG.log(Level.WARNING, "Error accepting socket", e);
+                continue;
+            }
+            if (!admission.tryAdmit()) {
+                reject(clientSock);
+                continue;
+            }
+            // In virtual mode, a connection past the cap is turned away like one that overflows the pool's queue
+            if (connectionPermits != null && !connectionPermits.tryAcquire()) {
+                admission.queueFull();
+                admission.release();
+                reject(clientSock);
+                continue;
+            }
+            if (reactor != null) {
+                register(clientSock);
+                continue;
+            }
+            try {
+                threadPool.execute(() -> {
+                    try {
+                        handleClient(clientSock);
+                    }
+                    finally {
+                        admission.release();
+                        releasePermit();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                admission.queueFull();
+                admission.release();
+                releasePermit();
+                reject(clientSock);
+            }
+        }
+    }
+
+    // Hands an admitted connection to the reactor (hybrid mode)
+    private void register(Socket cliSock) {
+        LOG.fine(logPrefix(cliSock) + "Client connected");
+        try {
+            reactor.register(cliSock.getChannel(), new HybridSession());
+        }
+        catch (IOException e) {
+            LOG.log(Level.INFO, logPrefix(cliSock) + "Couldn't register client", e);
+            admission.release();
+            try {
+                cliSock.close();
+            }
+            catch (IOException e2) {
+                LOG.log(Level.INFO, logPrefix(cliSock) + "Couldn't close client socket", e2);
             }
         }
     }
 
+    private void closeSocket() {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            LOG.log(Level.WARNING, "Couldn't close server socket", e);
+        }
+    }
+
+    private void releasePermit() {
+        if (connectionPermits != null)
+            connectionPermits.release();
+    }
+
+    // Sends "Server busy" and closes the connection once drained. The response is small enough that writing it
+    //   to a new connection doesn't block.
+    private void reject(Socket cliSock) {
+        LOG.fine(() -> logPrefix(cliSock) + "Rejected: " + admission);
+        try {
+            drainer.reject(cliSock.getChannel(), responses.error(AdmissionControl.BUSY));
+        }
+        catch (ValidationException e) {
+            throw new IllegalStateException("Invalid error message", e);
+        }
+    }
+
+    /**
+     * Gets the server's limits, along with counts of connections turned away.
+     * @return admission control
+     */
+    public AdmissionControl getAdmissionControl() {
+        return admission;
+    }
+
     // Runs doHandleClient and deals with exceptions + closing socket
     private void handleClient(Socket cliSock) {
         LOG.fine(logPrefix(cliSock) + "Client connected");
 
+        // On timeout, closing the socket makes a blocked read or write fail
+        var timeout = timers.add(kind -> {
+            LOG.fine(() -> logPrefix(cliSock) + "Client timed out (" + kind + ")");
+            try {
+                cliSock.close();
+            }
+            catch (IOException e) {
+                LOG.log(Level.INFO, logPrefix(cliSock) + "Couldn't close client socket", e);
+            }
+        });
         try {
-            cliSock.setSoTimeout(TIMEOUT_MS);
-            doHandleClient(cliSock);
-        }
-        catch (SocketTimeoutException e) {
-            LOG.fine(logPrefix(cliSock) + "Client timed out");
+            doHandleClient(cliSock, timeout);
         }
         catch (IOException e) {
-            LOG.log(Level.INFO, logPrefix(cliSock) + "I/O Error");
+            // Already logged if the socket was closed for timing out
+            if (!cliSock.isClosed())
+                LOG.log(Level.INFO, logPrefix(cliSock) + "I/O Error");
         }
         catch (Throwable t) {
             LOG.log(Level.SEVERE, logPrefix(cliSock) + "Uncaught exception handling client", t);
         }
         finally {
+            timeout.cancel();
             try {
                 cliSock.close();
                 LOG.fine(logPrefix(cliSock) + "Client connection closed");
@@ -137,97 +399,224 @@ public class Server {
         }
     }
 
-    private void doHandleClient(Socket cliSock) throws IOException, ValidationException {
-        var in = new MessageInput(cliSock.getInputStream());
-        var out = new MessageOutput(cliSock.getOutputStream());
-
-        Request req;
-        try {
-            req = (Request) Message.decodeType(in, MessageType.Request);
-        }
-        catch (ValidationException e) {
-            new Response(Status.ERROR, Response.NO_NEXT_FUNCTION, "Bad initial request")
-                    .encode(out);
-            return;
-        }
+    private void doHandleClient(Socket cliSock, TimingWheel.Timeout timeout) throws IOException, ValidationException {
+        var peer = new BlockingPeer(cliSock, admission.newParser(), timeout);
+        runSessions(cliSock, peer);
+        peer.flush();
+    }
 
-        // If app w/ given name exists, run it
-        var app = getApp(req.getFunction());
-        if (app.isPresent()) {
-            // Run app. Send error message if ValidationException or server causes these two exceptions
+    private void runSessions(Socket cliSock, BlockingPeer peer) throws IOException, ValidationException {
+        // With keep-alive, each session after the first starts with another initial request
+        for (int sessions = 1; ; ++sessions) {
+            Request req;
             try {
-                appStats.appWasRun(app.get());
-                runApp(cliSock, in, out, app.get(), req);
-            } catch (ValidationException e) {
-                LOG.log(Level.INFO, logPrefix(cliSock) + "Bad data: " + e.getMessage(), e);
-                new Response(Status.ERROR, Response.NO_NEXT_FUNCTION, "Bad data.")
-                        .encode(out);
+                req = peer.read();
+            }
+            catch (ValidationException e) {
+                peer.write(responses.error(BAD_INITIAL_REQUEST));
+                return;
             }
-        } else {
-            new Response(Status.ERROR, Response.NO_NEXT_FUNCTION, "Unexpected function").encode(out);
+            catch (EOFException e) {
+                // Between sessions, the client is free to hang up
+                if (sessions == 1)
+                    throw e;
+                return;
+            }
+
+            // If app w/ given name exists, run it
+            var app = startApp(req);
+            if (app.isPresent()) {
+                // Run app. Send error message if ValidationException or server causes these two exceptions
+                try {
+                    runApp(cliSock, peer, app.get(), req);
+                } catch (ValidationException e) {
+                    LOG.log(Level.INFO, logPrefix(cliSock) + "Bad data: " + e.getMessage(), e);
+                    peer.write(responses.error(BAD_DATA));
+                    return;
+                }
+            } else {
+                peer.write(responses.error(UNEXPECTED_FUNCTION));
+                return;
+            }
+            if (sessions >= admission.getMaxSessionsPerConnection())
+                return;
         }
     }
 
-    private void runApp(Socket cliSock, MessageInput in, MessageOutput out, ServerApp app, Request request)
+    private void runApp(Socket cliSock, BlockingPeer peer, ServerApp app, Request request)
             throws ValidationException, IOException
     {
-        Response response;
         String expectedFunction = request.getFunction();
-        boolean done;
-        do {
-            LOG.finer(logPrefix(cliSock) + "Received: " + request);
-            if (!request.getFunction().equals(expectedFunction)) {
-                response = new Response(Status.ERROR, expectedFunction, "Incorrect function " + request.getFunction() + ". Should be " + expectedFunction);
+        while (true) {
+            if (LOG.isLoggable(Level.FINER))
+                LOG.finer(logPrefix(cliSock) + "Received: " + request);
+            var handled = handle(app, expectedFunction, request);
+            if (handled.encoded() != null)
+                peer.write(handled.encoded());
+            else
+                peer.write(handled.response());
+            if (LOG.isLoggable(Level.FINER))
+                LOG.finer(logPrefix(cliSock) + "Sent: " + handled.response());
+
+            if (handled.isDone())
+                return;
+            expectedFunction = handled.nextFunction();
+            request = peer.read();
+        }
+    }
+
+    // Finds the app an initial request names, and counts it as run
+    private Optional<ServerApp> startApp(Request initial) {
+        var app = getApp(initial.getFunction());
+        app.ifPresent(appStats::appWasRun);
+        return app;
+    }
+
+    /**
+     * Response to one request of a session, ready to send.
+     * @param response response, including the request's cookies
+     * @param encoded cached encoding of the response, or null if it isn't cacheable
+     */
+    private record Handled(Response response, ResponseCache.Encoded encoded) {
+        // Function the next request must name
+        String nextFunction() {
+            return response.getFunction();
+        }
+
+        // Whether the app is done, ending the session
+        boolean isDone() {
+            return Response.NO_NEXT_FUNCTION.equals(response.getFunction());
+        }
+    }
+
+    // Runs one request of a session through its app. A request that doesn't name the expected function gets an
+    //   error, and the session continues. Either way, the response carries the request's cookies.
+    private Handled handle(ServerApp app, String expectedFunction, Request request) throws ValidationException {
+        Response response;
+        boolean cacheable;
+        if (!request.getFunction().equals(expectedFunction)) {
+            response = new Response(Status.ERROR, expectedFunction, "Incorrect function " + request.getFunction() + ". Should be " + expectedFunction);
+            cacheable = false;
+        }
+        else {
+            response = app.handleSteps(request);
+            cacheable = app.isResponseCacheable();
+        }
+
+        response.setCookieList(
+                request.getCookieList().addAll(response.getCookieList())
+        );
+        return new Handled(response, cacheable ? responses.get(response) : null);
+    }
+
+    /**
+     * One connection's session in hybrid mode: the same steps as doHandleClient and runApp, taken one request
+     *   at a time as the reactor delivers them.
+     */
+    private final class HybridSession implements DeframingReactor.Handler {
+        // App running the session, once its initial request has named one
+        private ServerApp app;
+        private String expectedFunction;
+        // Number of sessions started on this connection
+        private int sessions = 0;
+
+        @Override
+        public void onRequest(DeframingReactor.Conn conn, Request request) {
+            if (LOG.isLoggable(Level.FINER))
+                LOG.finer(conn.logPrefix() + "Received: " + request);
+            try {
+                if (app == null) {
+                    var optApp = startApp(request);
+                    if (optApp.isEmpty()) {
+                        sendError(conn, UNEXPECTED_FUNCTION);
+                        return;
+                    }
+                    app = optApp.get();
+                    expectedFunction = request.getFunction();
+                    ++sessions;
+                }
+
+                var handled = handle(app, expectedFunction, request);
+                expectedFunction = handled.nextFunction();
+                // With keep-alive, the next request may start another session
+                boolean close = handled.isDone() && sessions >= admission.getMaxSessionsPerConnection();
+                if (handled.isDone())
+                    app = null;
+                if (handled.encoded() != null)
+                    conn.send(handled.encoded(), close);
+                else
+                    conn.send(handled.response(), close);
+                if (LOG.isLoggable(Level.FINER))
+                    LOG.finer(conn.logPrefix() + "Sent: " + handled.response());
             }
-            else {
-                response = app.handleRequest(request);
-                expectedFunction = response.getFunction();
+            catch (ValidationException e) {
+                LOG.log(Level.INFO, conn.logPrefix() + "Bad data: " + e.getMessage(), e);
+                sendError(conn, BAD_DATA);
             }
+        }
 
-            response.setCookieList(
-                    request.getCookieList().addAll(response.getCookieList())
-            );
-            response.encode(out);
-            LOG.finer(logPrefix(cliSock) + "Sent: " + response);
+        @Override
+        public void onInvalid(DeframingReactor.Conn conn, ValidationException e) {
+            if (app != null)
+                LOG.log(Level.INFO, conn.logPrefix() + "Bad data: " + e.getMessage(), e);
+            sendError(conn, app == null ? BAD_INITIAL_REQUEST : BAD_DATA);
+        }
 
-            done = Response.NO_NEXT_FUNCTION.equals(response.getFunction());
-            if (!done)
-                request = (Request) Message.decodeType(in, MessageType.Request);
+        @Override
+        public void onClose() {
+            admission.release();
+        }
+
+        // Sends a preloaded error and closes
+        private void sendError(DeframingReactor.Conn conn, String message) {
+            try {
+                conn.send(responses.error(message), true);
+            }
+            catch (ValidationException e) {
+                throw new IllegalStateException("Invalid error message", e);
+            }
         }
-        while (!done);
+    }
 
+    /**
+     * Creates a fixed pool of platform threads that rejects tasks once maxQueued are waiting.
+     * @param name prefix of the threads' names
+     * @param numThreads number of threads
+     * @param maxQueued max number of tasks waiting for a thread
+     * @param ringWait how idle threads wait on a lock-free ring buffer, or null for a ThreadPoolExecutor
+     * @return new pool
+     */
+    public static ExecutorService newFixedPool(String name, int numThreads, int maxQueued,
+                                               RingBufferExecutor.WaitStrategy ringWait) {
+        if (ringWait != null)
+            return new RingBufferExecutor(numThreads, maxQueued, ringWait, new NamedThreadFactory(name));
+        return new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueued), new NamedThreadFactory(name));
+    }
+
+    // Gets an executor that runs each task in a new virtual thread, or a new platform thread if the runtime
+    //   doesn't have virtual threads. Looked up reflectively so the server still builds and runs on older JDKs.
+    private static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            LOG.warning("Virtual threads not available; using a platform thread per connection");
+            return Executors.newCachedThreadPool();
+        }
     }
 
     /**
-     * Gets the server app with the given name, if it exists.
+     * Gets a new instance of the server app with the given name, if it exists.
      *
      * The app should be in the package sprt.app.server.apps.(name), and
-     *    the class name should be (name).
+     *    the class name should be (name). See {@link AppRegistry}.
      * @param name name of app to get
      * @return Specified app, or Optional.empty if not found.
      */
     public static Optional<ServerApp> getApp(String name) {
-        Class<?> clazz;
-        try {
-            clazz = Class.forName("sprt.app.server.apps." + name + "." + name);
-        } catch (ClassNotFoundException | NoClassDefFoundError e) {
-            LOG.info("Invalid app name: " + name);
-            return Optional.empty();
-        }
-
-        Object instance;
-        try {
-            instance = clazz.getConstructor().newInstance();
-        } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-            LOG.log(Level.WARNING, "Couldn't create app of type " + clazz, e);
-            return Optional.empty();
-        }
-
-        if (!(instance instanceof ServerApp)) {
-            LOG.warning("App does not implement ServerApp: " + clazz);
-            return Optional.empty();
-        }
-        return Optional.of((ServerApp) instance);
+        return AppRegistry.getDefault().newApp(name);
     }
 
     /**
@@ -12,10 +12,14 @@ import n4m.app.server.N4MServer;
 import sprt.app.server.AsyncServerSocketChannelWrapper.Peer;
 import sprt.serialization.*;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 
@@ -25,26 +29,52 @@ import static sprt.app.server.Server.getApp;
 
 /**
  * Implementation of SPRT server protocol using Java NIO
+ *
+ * Clients may pipeline requests; each peer's requests are handled in order, and responses to requests that
+ *   have more already waiting behind them are written together.
  */
 public class ServerAIO {
     private static final Logger LOG = logToFile(ServerAIO.class, "connections.log");
-    private static final int N4M_THREAD_POOL_SIZE = 5;
+    private static final int DEFAULT_N4M_THREADS = 5;
+    // Max app tasks waiting for an app thread. When full, the I/O thread runs the app itself.
+    private static final int APP_QUEUE_SIZE = 1024;
+    // Fixed error messages sent to misbehaving clients
+    private static final String UNEXPECTED_FUNCTION = "Unexpected function";
+    private static final String UNEXPECTED_MESSAGE = "Unexpected message";
+    private static final String UNEXPECTED_ERROR = "Unexpected error";
 
     /**
      * Creates and runs a SPRT server and an N4M server.
-     * @param args port number
+     * @param args port number, and optionally: # I/O threads (default: # of processors),
+     *             # app threads (default 0: run apps on the I/O threads), # N4M threads (default 5),
+     *             max sessions, max app sessions per connection (default 1; more turns on keep-alive)
      */
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("Usage: ServerAIO <port>");
+        if (args.length < 1 || args.length > 6) {
+            System.err.println("Usage: ServerAIO <port> [ioThreads] [appThreads] [n4mThreads] [maxSessions] "
+                    + "[sessionsPerConnection]");
             return;
         }
         int port = parseIntOrExit("port", args[0], 1, 65535, 1);
+        int ioThreads = args.length > 1 ? parseIntOrExit("ioThreads", args[1], 1, Integer.MAX_VALUE, 1)
+                : Runtime.getRuntime().availableProcessors();
+        int appThreads = args.length > 2 ? parseIntOrExit("appThreads", args[2], 0, Integer.MAX_VALUE, 1) : 0;
+        int n4mThreads = args.length > 3 ? parseIntOrExit("n4mThreads", args[3], 1, Integer.MAX_VALUE, 1)
+                : DEFAULT_N4M_THREADS;
+        var admission = new AdmissionControl();
+        if (args.length > 4) {
+            int maxSessions = parseIntOrExit("maxSessions", args[4], 1, Integer.MAX_VALUE, 1);
+            int perConnection = args.length > 5
+                    ? parseIntOrExit("sessionsPerConnection", args[5], 1, Integer.MAX_VALUE, 1)
+                    : AdmissionControl.DEFAULT_MAX_SESSIONS_PER_CONNECTION;
+            admission = new AdmissionControl(maxSessions, AdmissionControl.DEFAULT_MAX_QUEUED,
+                    admission.getMaxRequestSize(), perConnection);
+        }
 
         // start SPRT server
         ServerAIO sprtSrv;
         try {
-            sprtSrv = new ServerAIO(port);
+            sprtSrv = new ServerAIO(port, ioThreads, appThreads, admission);
         } catch (IOException e) {
             System.err.println("Couldn't create SPRT server");
             return;
@@ -54,7 +84,7 @@ public class ServerAIO {
         // start N4M server in separate thread
         N4MServer n4mSrv;
         try {
-            n4mSrv = new N4MServer(sprtSrv.stats, port, N4M_THREAD_POOL_SIZE);
+            n4mSrv = new N4MServer(sprtSrv.stats, port, n4mThreads);
         } catch (SocketException e) {
             System.err.println("Couldn't create N4M server");
             return;
@@ -71,16 +101,94 @@ public class ServerAIO {
     }
 
     private final AsyncServerSocketChannelWrapper channel;
+    // Runs app logic off the I/O threads, or null to run it on them
+    private final ExecutorService appExecutor;
     // Tracks usage data for n4m server
     private final AppStats stats = new AppStats();
+    // Encoded error frames and cacheable app responses
+    private final ResponseCache responses = new ResponseCache();
+    // Caps on sessions
+    private final AdmissionControl admission;
 
     /**
-     * Creates server and binds to the given port
+     * Creates server and binds to the given port. I/O and apps run on the JDK's default channel group.
      * @param port port to bind to
      * @throws IOException If channel creation fails
      */
     public ServerAIO(int port) throws IOException {
-        channel = new AsyncServerSocketChannelWrapper(port);
+        admission = new AdmissionControl();
+        channel = new AsyncServerSocketChannelWrapper(port, null, admission);
+        appExecutor = null;
+        preloadResponses();
+    }
+
+    /**
+     * Creates server with its own channel group and binds to the given port.
+     *
+     * If appThreads is positive, apps run on a separate pool of that size, so a slow app doesn't hold up
+     *   I/O completions for other peers. Its queue is bounded; when it's full, the I/O thread runs the app.
+     * @param port port to bind to
+     * @param ioThreads number of threads in the channel group, which run all I/O completions
+     * @param appThreads number of threads to run apps on, or 0 to run them on the I/O threads
+     * @throws IOException If channel creation fails
+     * @throws IllegalArgumentException if ioThreads is not positive or appThreads is negative
+     */
+    public ServerAIO(int port, int ioThreads, int appThreads) throws IOException {
+        this(port, ioThreads, appThreads, new AdmissionControl());
+    }
+
+    /**
+     * Creates server with its own channel group and the given limits, and binds to the given port.
+     *
+     * Peers past the max sessions are sent a "Server busy" error and closed right away.
+     * @param port port to bind to
+     * @param ioThreads number of threads in the channel group, which run all I/O completions
+     * @param appThreads number of threads to run apps on, or 0 to run them on the I/O threads
+     * @param admission limits on sessions, listen backlog, and request size
+     * @throws IOException If channel creation fails
+     * @throws IllegalArgumentException if ioThreads is not positive or appThreads is negative
+     */
+    public ServerAIO(int port, int ioThreads, int appThreads, AdmissionControl admission) throws IOException {
+        if (ioThreads <= 0 || appThreads < 0)
+            throw new IllegalArgumentException("Invalid thread count");
+        this.admission = admission;
+        var group = AsynchronousChannelGroup.withFixedThreadPool(ioThreads, new NamedThreadFactory("sprt-aio-io"));
+        channel = new AsyncServerSocketChannelWrapper(port, group, admission);
+        if (appThreads > 0) {
+            appExecutor = new ThreadPoolExecutor(appThreads, appThreads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(APP_QUEUE_SIZE), new NamedThreadFactory("sprt-aio-app"),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        else {
+            appExecutor = null;
+        }
+        preloadResponses();
+    }
+
+    private void preloadResponses() {
+        try {
+            responses.preloadErrors(UNEXPECTED_FUNCTION, UNEXPECTED_MESSAGE, UNEXPECTED_ERROR, AdmissionControl.BUSY);
+        } catch (ValidationException e) {
+            throw new IllegalStateException("Invalid error message", e);
+        }
+        // Find apps now rather than on the first request
+        AppRegistry.getDefault();
+    }
+
+    /**
+     * Gets the server's limits, along with counts of peers turned away.
+     * @return admission control
+     */
+    public AdmissionControl getAdmissionControl() {
+        return admission;
+    }
+
+    /**
+     * Gets the pool peers' buffers are leased from, whose counts show buffers in use and free.
+     * @return buffer pool
+     */
+    public BufferPool getBufferPool() {
+        return channel.getBufferPool();
     }
 
     /**
@@ -88,99 +196,120 @@ public class ServerAIO {
      */
     public void start() {
         channel.beginAccept(peer -> {
+            if (!admission.tryAdmit()) {
+                reject(peer);
+                return true;
+            }
+            peer.setOnClose(admission::release);
             LOG.fine(logPrefix(peer) + "Connected");
-            readRequest(peer, request -> handleFirstRequest(peer, request));
+            readInitialRequest(peer, 1);
             return true; // keep accepting connections
         });
     }
 
-    private void handleFirstRequest(Peer peer, Request req) {
+    // Reads the request that starts the given session (1 for the first on this peer) and runs its app
+    private void readInitialRequest(Peer peer, int session) {
+        readRequest(peer, request -> runApp(() -> handleFirstRequest(peer, request, session)));
+    }
+
+    // Runs app work on the app executor, if there is one; else, on this thread
+    private void runApp(Runnable task) {
+        if (appExecutor != null)
+            appExecutor.execute(task);
+        else
+            task.run();
+    }
+
+    private void handleFirstRequest(Peer peer, Request req, int session) {
         var optApp = getApp(req.getFunction());
         if (optApp.isEmpty()) {
-            fail(peer, "Unexpected function");
+            fail(peer, UNEXPECTED_FUNCTION);
             return;
         }
         var app = optApp.get();
 
         stats.appWasRun(app);
-        appHandleRequest(peer, app, req);
+        appHandleRequest(peer, app, req, session);
     }
 
-    private void appHandleRequest(Peer peer, ServerApp app, Request request) {
+    private void appHandleRequest(Peer peer, ServerApp app, Request request, int session) {
         try {
-            doAppHandleRequest(peer, app, request);
+            doAppHandleRequest(peer, app, request, session);
         } catch (ValidationException e) {
             fail(peer, e.getMessage());
         }
         catch (Throwable t) {
-            fail(peer, "Unexpected error");
+            fail(peer, UNEXPECTED_ERROR);
         }
     }
 
-    private void doAppHandleRequest(Peer peer, ServerApp app, Request request) throws ValidationException {
+    private void doAppHandleRequest(Peer peer, ServerApp app, Request request, int session)
+            throws ValidationException {
         Response response;
-        LOG.finer(logPrefix(peer) + "Received: " + request);
+        LOG.finer(() -> logPrefix(peer) + "Received: " + request);
         var expectedFunction = app.getState().name();
         if (!request.getFunction().equals(expectedFunction)) {
-            fail(peer, "Unexpected message");
+            fail(peer, UNEXPECTED_MESSAGE);
             return;
         }
 
-        response = app.handleRequest(request);
+        response = app.handleSteps(request);
         response.setCookieList(
                 request.getCookieList().addAll(response.getCookieList())
         );
-        sendResponse(peer, response, () -> {
-            LOG.finer(logPrefix(peer) + "Sent: " + response);
+        boolean done = Response.NO_NEXT_FUNCTION.equals(response.getFunction());
+        // With keep-alive, another session may follow
+        boolean last = done && session >= admission.getMaxSessionsPerConnection();
+        VoidFunction onSent = () -> {
+            LOG.finer(() -> logPrefix(peer) + "Sent: " + response);
             // If app is not done, then begin reading another request. When done reading, call this function again.
-            if (!Response.NO_NEXT_FUNCTION.equals(response.getFunction())) {
-                readRequest(peer, req -> appHandleRequest(peer, app, req));
+            if (!done) {
+                readRequest(peer, req -> runApp(() -> appHandleRequest(peer, app, req, session)));
+            }
+            else if (!last) {
+                readInitialRequest(peer, session + 1);
             }
             else {
                 peer.close();
             }
-        });
-
+        };
+        var data = app.isResponseCacheable()
+                ? new ByteBuffer[] { responses.get(response).buffer() }
+                : response.encodeSegments(peer::writeBuffer);
+        // Unless the peer is closed after this, a response to a pipelined request may go out with the next one
+        if (last)
+            peer.beginWrite(data, onSent);
+        else
+            peer.beginWriteCoalesced(data, onSent);
     }
 
     private void fail(Peer peer, String msg) {
         LOG.info(logPrefix(peer) + "Closing peer with error: " + msg);
 
-        Response response = null;
+        ResponseCache.Encoded response;
         try {
-            response = new Response(Status.ERROR, Response.NO_NEXT_FUNCTION, msg);
+            response = responses.error(msg);
         } catch (ValidationException e) {
             LOG.info("Can't create response");
+            peer.close();
             return;
         }
 
-        sendResponse(peer, response, peer::close);
+        peer.beginWrite(response.buffer(), peer::close);
     }
 
-    private void readRequest(Peer peer, Consumer<Request> callback) {
-        peer.beginRead(data -> {
-            try {
-                var request = (Request) Message.decodeType(new MessageInput(new ByteArrayInputStream(data)), MessageType.Request);
-                callback.accept(request);
-            } catch (ValidationException e) {
-                fail(peer, e.getMessage());
-            }
-            catch (IOException e) {
-                fail(peer, "I/O Error");
-            }
-        });
-    }
-
-    private void sendResponse(Peer peer, Response response, VoidFunction callback) {
-        var baos = new ByteArrayOutputStream();
-        var out = new MessageOutput(baos);
+    // Sends "Server busy" and closes the peer. Not logged above FINE, since it happens a lot under overload.
+    private void reject(Peer peer) {
+        LOG.fine(() -> logPrefix(peer) + "Rejected: " + admission);
         try {
-            response.encode(out);
-        } catch (IOException e) {
-            throw new RuntimeException("Couldn't write to ByteArrayOutputStream in memory, should never happen");
+            peer.beginWrite(responses.error(AdmissionControl.BUSY).buffer(), () -> peer.shutdownAndClose(admission));
+        } catch (ValidationException e) {
+            peer.close();
         }
+    }
 
-        peer.beginWrite(baos.toByteArray(), callback);
+    private void readRequest(Peer peer, Consumer<Request> callback) {
+        peer.beginRead(callback, e -> fail(peer, e.getMessage()));
     }
 
     private static String logPrefix(Peer peer) {
@@ -8,6 +8,7 @@
 
 package sprt.app.server;
 
+import sprt.serialization.CookieList;
 import sprt.serialization.Request;
 import sprt.serialization.Response;
 import sprt.serialization.Status;
@@ -22,6 +23,8 @@ import java.util.Objects;
 public abstract class ServerApp {
     // Current state, or null for the empty state
     protected State state;
+    // Whether the last response from handleRequest was marked cacheable
+    private boolean responseCacheable = false;
 
     /**
      * Handles the request by passing it to the app's State.
@@ -30,22 +33,67 @@ public abstract class ServerApp {
      * @throws ValidationException if invalid data
      */
     public Response handleRequest(Request req) throws ValidationException {
+        responseCacheable = false;
         if (getState() == null) {
             return new Response(Status.ERROR, Response.NO_NEXT_FUNCTION, "App has already exited");
         }
 
         try {
             var result = state.handleRequest(req);
+            if (result == null)
+                return new Response(Status.ERROR, getState().name(), "Invalid number of parameters. " + getState().prompt());
             gotoState(result.nextState());
+            responseCacheable = result.cacheable();
             return result.resp();
         } catch (InvocationTargetException | IllegalAccessException e) {
             System.err.println("Server error running request:");
             e.printStackTrace();
             return new Response(Status.ERROR, Response.NO_NEXT_FUNCTION, "A server error occurred processing the request.");
         }
-        catch (IllegalArgumentException e) {
-            return new Response(Status.ERROR, getState().name(), "Invalid number of parameters. " + getState().prompt());
+    }
+
+    /**
+     * Handles the request, then each of its next steps (see {@link Request#getNextSteps()}) as if it were the
+     *   following request of the session, carrying the request's cookies plus those set by earlier steps.
+     *
+     * Stops at the first ERROR response, when the app exits, or when a step doesn't name the function the
+     *   previous response asked for (which gives an ERROR response, like a wrong function in its own request).
+     * @param req request to handle
+     * @return response to the last step run, with the cookies set by every step run
+     * @throws ValidationException if invalid data
+     */
+    public Response handleSteps(Request req) throws ValidationException {
+        var response = handleRequest(req);
+        if (!req.isBatch())
+            return response;
+
+        var cookies = req.getCookieList();
+        var setCookies = new CookieList();
+        for (var step : req.getNextSteps()) {
+            if (response.getStatus() == Status.ERROR || Response.NO_NEXT_FUNCTION.equals(response.getFunction()))
+                break;
+            cookies.addAll(response.getCookieList());
+            setCookies.addAll(response.getCookieList());
+            String expectedFunction = response.getFunction();
+            if (!step.getFunction().equals(expectedFunction)) {
+                responseCacheable = false;
+                response = new Response(Status.ERROR, expectedFunction,
+                        "Incorrect function " + step.getFunction() + ". Should be " + expectedFunction);
+                break;
+            }
+            response = handleRequest(new Request(step.getFunction(), step.getParams(), cookies));
         }
+        response.setCookieList(setCookies.addAll(response.getCookieList()));
+        return response;
+    }
+
+    /**
+     * Indicates whether the response returned by the last call to {@link #handleRequest(Request)} (or
+     *   {@link #handleSteps(Request)}) was marked cacheable by its state (see {@link StateResult#asCacheable()}).
+     * @return whether last response is cacheable
+     */
+    public boolean isResponseCacheable() {
+        return responseCacheable;
     }
 
     /**
@@ -59,8 +107,11 @@ public abstract class ServerApp {
         if (state != null)
             state.onExit();
         this.state = nextState;
-        if (nextState != null)
+        if (nextState != null) {
+            // Requests for this state will name it, so have the decoders reuse the same String
+            nextState.pinName();
             nextState.onEnter();
+        }
     }
 
     /**
@@ -0,0 +1,529 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server;
+
+import n4m.app.server.N4MServer;
+import sprt.serialization.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static shared.app.AppUtil.logToFile;
+import static shared.app.AppUtil.parseIntOrExit;
+import static sprt.app.server.Server.getApp;
+
+/**
+ * Implementation of SPRT server protocol using Selector event loops (multi-reactor).
+ *
+ * An acceptor thread hands new connections to the event loops round-robin. Each connection then stays on
+ *   its loop for its whole life: reading, parsing, running the app, and writing all happen on that loop's
+ *   thread, so a session never hops between threads.
+ *
+ * Clients may pipeline requests. Every complete request that has arrived is handled, in order, before any
+ *   response is written, and the responses are then written together with one write.
+ */
+public class ServerNIO {
+    private static final Logger LOG = logToFile(ServerNIO.class, "connections.log");
+    private static final int N4M_THREAD_POOL_SIZE = 5;
+    private static final int BUF_SIZE = 1024;
+    // Bytes of responses to pipelined requests that are written right away instead of waiting for the rest
+    private static final int FLUSH_THRESHOLD = 8 * 1024;
+    // Time client may go without I/O progress before it gets kicked off
+    private static final int TIMEOUT_MS = 20 * 1000;
+    // Fixed error messages sent to misbehaving clients
+    private static final String UNEXPECTED_FUNCTION = "Unexpected function";
+    private static final String UNEXPECTED_MESSAGE = "Unexpected message";
+    private static final String UNEXPECTED_ERROR = "Unexpected error";
+
+    /**
+     * Creates and runs a SPRT server and an N4M server.
+     * @param args port number, number of event loops, and optionally max sessions and max app sessions per
+     *             connection (more than 1 turns on keep-alive)
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("Usage: ServerNIO <port> <numLoops> [maxSessions] [sessionsPerConnection]");
+            return;
+        }
+        int port = parseIntOrExit("port", args[0], 1, 65535, 1);
+        int numLoops = parseIntOrExit("numLoops", args[1], 1, Integer.MAX_VALUE, 1);
+        var admission = new AdmissionControl();
+        if (args.length >= 3) {
+            int maxSessions = parseIntOrExit("maxSessions", args[2], 1, Integer.MAX_VALUE, 1);
+            int perConnection = args.length == 4
+                    ? parseIntOrExit("sessionsPerConnection", args[3], 1, Integer.MAX_VALUE, 1)
+                    : AdmissionControl.DEFAULT_MAX_SESSIONS_PER_CONNECTION;
+            admission = new AdmissionControl(maxSessions, AdmissionControl.DEFAULT_MAX_QUEUED,
+                    admission.getMaxRequestSize(), perConnection);
+        }
+
+        // start SPRT server
+        ServerNIO sprtSrv;
+        try {
+            sprtSrv = new ServerNIO(port, numLoops, admission);
+        } catch (IOException e) {
+            System.err.println("Couldn't create SPRT server");
+            return;
+        }
+        sprtSrv.start();
+
+        // run N4M server in this thread
+        N4MServer n4mSrv;
+        try {
+            n4mSrv = new N4MServer(sprtSrv.stats, port, N4M_THREAD_POOL_SIZE);
+        } catch (SocketException e) {
+            System.err.println("Couldn't create N4M server");
+            return;
+        }
+        n4mSrv.go();
+    }
+
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    // Tracks usage data for n4m server
+    private final AppStats stats = new AppStats();
+    // Encoded error frames and cacheable app responses
+    private final ResponseCache responses = new ResponseCache();
+    // Caps on sessions
+    private final AdmissionControl admission;
+    // Idle, request, and session deadlines of every connection
+    private final TimingWheel timers = new TimingWheel(TIMEOUT_MS);
+    // Closes rejected connections once drained
+    private final RejectDrainer drainer;
+
+    /**
+     * Creates server and binds to the given port
+     * @param port port to bind to
+     * @param numLoops number of event loops (threads) serving connections
+     * @throws IOException If channel or selector creation fails
+     */
+    public ServerNIO(int port, int numLoops) throws IOException {
+        this(port, numLoops, new AdmissionControl());
+    }
+
+    /**
+     * Creates server with the given limits and binds to the given port.
+     *
+     * Connections past the max sessions are sent a "Server busy" error and closed right away.
+     * @param port port to bind to
+     * @param numLoops number of event loops (threads) serving connections
+     * @param admission limits on sessions, listen backlog, and request size
+     * @throws IOException If channel or selector creation fails
+     */
+    public ServerNIO(int port, int numLoops, AdmissionControl admission) throws IOException {
+        this.admission = admission;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port), admission.getMaxQueued());
+        drainer = new RejectDrainer(admission);
+        loops = new EventLoop[numLoops];
+        for (int i = 0; i < numLoops; ++i) {
+            loops[i] = new EventLoop();
+        }
+        try {
+            responses.preloadErrors(UNEXPECTED_FUNCTION, UNEXPECTED_MESSAGE, UNEXPECTED_ERROR, AdmissionControl.BUSY);
+        } catch (ValidationException e) {
+            throw new IllegalStateException("Invalid error message", e);
+        }
+        // Find apps now rather than on the first request
+        AppRegistry.getDefault();
+    }
+
+    /**
+     * Starts the event loops and the acceptor, each in its own thread.
+     */
+    public void start() {
+        LOG.info("Listening on port " + serverChannel.socket().getLocalPort() + " with " + loops.length + " loops");
+        for (int i = 0; i < loops.length; ++i) {
+            new Thread(loops[i], "sprt-loop-" + i).start();
+        }
+        new Thread(drainer, "sprt-reject-drainer").start();
+        new Thread(this::acceptLoop, "sprt-acceptor").start();
+    }
+
+    /**
+     * Gets app usage statistics
+     * @return app stats
+     */
+    public AppStats getAppStats() {
+        return stats;
+    }
+
+    /**
+     * Gets the server's limits, along with counts of connections turned away.
+     * @return admission control
+     */
+    public AdmissionControl getAdmissionControl() {
+        return admission;
+    }
+
+    // Accepts connections forever, handing them to the loops in turn
+    private void acceptLoop() {
+        int nextLoop = 0;
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel ch = serverChannel.accept();
+                ch.configureBlocking(false);
+                if (!admission.tryAdmit()) {
+                    reject(ch);
+                    continue;
+                }
+                loops[nextLoop].register(ch);
+                nextLoop = (nextLoop + 1) % loops.length;
+            }
+            catch (IOException e) {
+                LOG.log(Level.WARNING, "Error accepting socket", e);
+            }
+        }
+    }
+
+    // Sends "Server busy" and closes the channel once drained. The response is small enough that it fits in
+    //   a new connection's send buffer.
+    private void reject(SocketChannel ch) {
+        try {
+            drainer.reject(ch, responses.error(AdmissionControl.BUSY));
+        }
+        catch (ValidationException e) {
+            throw new IllegalStateException("Invalid error message", e);
+        }
+    }
+
+    /**
+     * Selector loop that owns a set of connections
+     */
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        // Connections accepted but not yet registered with the selector
+        private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+        // Connections whose deadlines passed, to be closed by this loop's thread
+        private final Queue<Connection> expired = new ConcurrentLinkedQueue<>();
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        // Hands a connection to this loop. Called from the acceptor thread.
+        void register(SocketChannel ch) {
+            newChannels.add(ch);
+            selector.wakeup();
+        }
+
+        // Has this loop close a connection that timed out. Called from the timing wheel's thread.
+        void expire(Connection conn) {
+            expired.add(conn);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                }
+                catch (IOException e) {
+                    LOG.log(Level.SEVERE, "Selector failed", e);
+                    return;
+                }
+                registerNew();
+                closeExpired();
+
+                var keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    var key = keys.next();
+                    keys.remove();
+                    var conn = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable())
+                            conn.onWritable();
+                        if (key.isValid() && key.isReadable())
+                            conn.onReadable();
+                    }
+                    catch (CancelledKeyException e) {
+                        conn.close();
+                    }
+                }
+            }
+        }
+
+        private void registerNew() {
+            SocketChannel ch;
+            while ((ch = newChannels.poll()) != null) {
+                try {
+                    var key = ch.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(ch, key, this));
+                }
+                catch (IOException e) {
+                    LOG.log(Level.INFO, "Couldn't register connection", e);
+                    admission.release();
+                    try {
+                        ch.close();
+                    }
+                    catch (IOException e2) {
+                        LOG.log(Level.INFO, "Couldn't close connection", e2);
+                    }
+                }
+            }
+        }
+
+        private void closeExpired() {
+            Connection conn;
+            while ((conn = expired.poll()) != null) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * State of one client connection. Only used by the thread of the loop that owns it.
+     */
+    private final class Connection {
+        private final SocketChannel ch;
+        private final SelectionKey key;
+        // Bytes read from the channel. Between reads, its remaining bytes are unparsed leftovers.
+        private final ByteBuffer readBuf = ByteBuffer.allocate(BUF_SIZE).limit(0);
+        private final RequestParser parser = admission.newParser();
+        // Encoded responses not yet written. Grown as needed.
+        private ByteBuffer writeBuf = ByteBuffer.allocate(BUF_SIZE);
+        // Whether writeBuf (flipped) is still being written. No more requests are handled until it's done.
+        private boolean writePending = false;
+        // Whether to close once writeBuf is written
+        private boolean closeAfterWrite = false;
+        // App being run, or null before a session's initial request
+        private ServerApp app = null;
+        // Number of sessions started on this connection
+        private int sessions = 0;
+        // Tells the owning loop to close this when a deadline passes
+        private final TimingWheel.Timeout timeout;
+        // Whether close() has been called
+        private boolean closed = false;
+
+        Connection(SocketChannel ch, SelectionKey key, EventLoop loop) {
+            this.ch = ch;
+            this.key = key;
+            timeout = timers.add(kind -> {
+                LOG.fine(() -> logPrefix() + "Client timed out (" + kind + ")");
+                loop.expire(this);
+            });
+            LOG.fine(() -> logPrefix() + "Connected");
+        }
+
+        void onReadable() {
+            int numRead;
+            readBuf.compact();
+            try {
+                numRead = ch.read(readBuf);
+            }
+            catch (IOException e) {
+                LOG.log(Level.INFO, logPrefix() + "Read failed", e);
+                close();
+                return;
+            }
+            finally {
+                readBuf.flip();
+            }
+            if (numRead == -1) {
+                close();
+                return;
+            }
+            timeout.touch();
+            handleBuffered();
+        }
+
+        void onWritable() {
+            try {
+                ch.write(writeBuf);
+            }
+            catch (IOException e) {
+                LOG.log(Level.INFO, logPrefix() + "Write failed", e);
+                close();
+                return;
+            }
+            timeout.touch();
+            if (!writeBuf.hasRemaining()) {
+                writePending = false;
+                writeBuf.clear();
+                key.interestOps(SelectionKey.OP_READ);
+                if (closeAfterWrite)
+                    close();
+                else
+                    handleBuffered();
+            }
+        }
+
+        // Handles every complete request in readBuf, then writes their responses. Stops early if a response
+        //   can't be written right away, or the connection is to be closed.
+        private void handleBuffered() {
+            while (!writePending && !closeAfterWrite && ch.isOpen()) {
+                Request request;
+                try {
+                    request = parser.parse(readBuf);
+                }
+                catch (ValidationException e) {
+                    fail(e.getMessage());
+                    break;
+                }
+                if (request == null) {
+                    if (!parser.isIdle())
+                        timeout.frameStarted();
+                    break;
+                }
+                timeout.frameFinished();
+                handleRequest(request);
+                if (writeBuf.position() >= FLUSH_THRESHOLD)
+                    flush();
+            }
+            if (!writePending && ch.isOpen())
+                flush();
+        }
+
+        private void handleRequest(Request request) {
+            if (app == null) {
+                var optApp = getApp(request.getFunction());
+                if (optApp.isEmpty()) {
+                    fail(UNEXPECTED_FUNCTION);
+                    return;
+                }
+                app = optApp.get();
+                stats.appWasRun(app);
+                ++sessions;
+            }
+
+            try {
+                appHandleRequest(request);
+            }
+            catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+            catch (Throwable t) {
+                LOG.log(Level.WARNING, logPrefix() + "Error running app", t);
+                fail(UNEXPECTED_ERROR);
+            }
+        }
+
+        private void appHandleRequest(Request request) throws ValidationException {
+            LOG.finer(() -> logPrefix() + "Received: " + request);
+            if (!request.getFunction().equals(app.getState().name())) {
+                fail(UNEXPECTED_MESSAGE);
+                return;
+            }
+
+            var response = app.handleSteps(request);
+            response.setCookieList(
+                    request.getCookieList().addAll(response.getCookieList())
+            );
+            boolean cacheable = app.isResponseCacheable();
+            // With keep-alive, the next request may start another session
+            if (Response.NO_NEXT_FUNCTION.equals(response.getFunction())) {
+                app = null;
+                closeAfterWrite = sessions >= admission.getMaxSessionsPerConnection();
+            }
+            LOG.finer(() -> logPrefix() + "Sent: " + response);
+            if (cacheable) {
+                write(responses.get(response).buffer());
+            }
+            else {
+                ensureRoom(response.encodedLength());
+                response.encode(writeBuf);
+            }
+        }
+
+        // Sends an error response and closes the connection
+        private void fail(String msg) {
+            LOG.info(logPrefix() + "Closing peer with error: " + msg);
+            ResponseCache.Encoded response;
+            try {
+                response = responses.error(msg);
+            }
+            catch (ValidationException e) {
+                LOG.info("Can't create response");
+                close();
+                return;
+            }
+            closeAfterWrite = true;
+            write(response.buffer());
+        }
+
+        // Adds data to the responses to write
+        private void write(ByteBuffer data) {
+            ensureRoom(data.remaining());
+            writeBuf.put(data);
+        }
+
+        // Grows writeBuf, keeping its contents, so it has room for len more bytes
+        private void ensureRoom(int len) {
+            if (writeBuf.remaining() >= len)
+                return;
+            var bigger = ByteBuffer.allocate(Math.max(writeBuf.position() + len, writeBuf.capacity() * 2));
+            writeBuf = bigger.put(writeBuf.flip());
+        }
+
+        // Writes the responses so far, as much as possible now; the rest is written when the channel is writable
+        private void flush() {
+            if (writeBuf.position() > 0) {
+                writeBuf.flip();
+                try {
+                    ch.write(writeBuf);
+                }
+                catch (IOException e) {
+                    LOG.log(Level.INFO, logPrefix() + "Write failed", e);
+                    close();
+                    return;
+                }
+                timeout.touch();
+                if (writeBuf.hasRemaining()) {
+                    writePending = true;
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                writeBuf.clear();
+            }
+            if (closeAfterWrite)
+                close();
+        }
+
+        void close() {
+            if (closed)
+                return;
+            closed = true;
+            timeout.cancel();
+            admission.release();
+            key.cancel();
+            try {
+                ch.close();
+                LOG.fine(() -> logPrefix() + "Client connection closed");
+            }
+            catch (IOException e) {
+                LOG.log(Level.INFO, logPrefix() + "Couldn't close client socket", e);
+            }
+        }
+
+        private String logPrefix() {
+            String remoteAddress = "???";
+            try {
+                remoteAddress = String.valueOf(ch.getRemoteAddress());
+            }
+            catch (IOException e) {
+                // Leave as "???"
+            }
+            return remoteAddress + "-" + Thread.currentThread().getId() + " ";
+        }
+    }
+}
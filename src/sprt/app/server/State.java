@@ -9,16 +9,40 @@
 package sprt.app.server;
 
 import sprt.serialization.Request;
+import sprt.serialization.TokenTable;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.Arrays;
-import java.util.Optional;
+import java.util.Collections;
 
 /**
  * A state that a ServerApp is in at any given time.
  */
 public abstract class State {
+    // What's known about each State class; found once per class
+    private static final ClassValue<ClassInfo> CLASS_INFO = new ClassValue<>() {
+        @Override
+        protected ClassInfo computeValue(Class<?> stateClass) {
+            return new ClassInfo(findHandlers(stateClass));
+        }
+    };
+
+    private static final class ClassInfo {
+        // Handlers by number of parameters
+        private final MethodHandle[] handlers;
+        // Whether the name of an instance has been pinned in the TokenTable
+        private volatile boolean namePinned = false;
+
+        private ClassInfo(MethodHandle[] handlers) {
+            this.handlers = handlers;
+        }
+    }
+
     /**
      * Name of the state
      * @return state name
@@ -36,38 +60,74 @@ public abstract class State {
     protected void onExit() {}
 
     /**
-     * Handles the request by finding a method in the current state called doHandleRequest with the correct parameters.
+     * Handles the request by running the method in the current state called doHandleRequest that takes the
+     *   Request and then one String per parameter.
      * @param req request to handle
-     * @return Result of handling the request (next state + response pair)
-     * @throws InvocationTargetException if the state's handler throws an exception
+     * @return Result of handling the request (next state + response pair), or null if the state has no handler
+     *   for that number of parameters
+     * @throws InvocationTargetException if the state's handler throws anything, including an Error
      * @throws IllegalAccessException if no permission to run state's handler
-     * @throws IllegalArgumentException if no handler exists for the appropriate parameters.
      */
     StateResult handleRequest(Request req) throws InvocationTargetException, IllegalAccessException {
         var params = req.getParams();
-        var method = getHandler(params);
-        if (method.isPresent()) {
-            var realParams = new Object[params.length + 1];
-            System.arraycopy(params, 0, realParams, 1, params.length);
-            realParams[0] = req;
-            return (StateResult) method.get().invoke(this, realParams);
+        var handlers = CLASS_INFO.get(getClass()).handlers;
+        if (params.length >= handlers.length || handlers[params.length] == null)
+            return null;
+        try {
+            return (StateResult) handlers[params.length].invokeExact(this, req, params);
+        } catch (IllegalAccessException e) {
+            throw e;
+        } catch (Throwable e) {
+            // Includes Errors, so a failing handler gets a server error response like any other exception
+            throw new InvocationTargetException(e);
         }
-        else {
-            throw new IllegalArgumentException("Incorrect number of arguments");
+    }
+
+    /**
+     * Has the decoders reuse this state's name for requests that name it. Only the first instance of each State
+     *   class entered is pinned, so a class whose instances build their names can't grow the table without bound.
+     */
+    void pinName() {
+        var info = CLASS_INFO.get(getClass());
+        if (!info.namePinned) {
+            info.namePinned = true;
+            TokenTable.pin(name());
+        }
+    }
+
+    // Finds the doHandleRequest methods of a State class. Each is adapted to take (State, Request, String[]) and
+    //   stored at the index of its number of String parameters; other indexes are null.
+    private static MethodHandle[] findHandlers(Class<?> stateClass) {
+        var handlers = new MethodHandle[0];
+        for (var method : stateClass.getMethods()) {
+            if (!method.getName().equals("doHandleRequest") || Modifier.isStatic(method.getModifiers())
+                    || !StateResult.class.isAssignableFrom(method.getReturnType()))
+                continue;
+            var paramTypes = method.getParameterTypes();
+            if (paramTypes.length == 0 || paramTypes[0] != Request.class)
+                continue;
+            int arity = paramTypes.length - 1;
+            if (!Arrays.stream(paramTypes, 1, paramTypes.length).allMatch(type -> type == String.class))
+                continue;
+            if (arity >= handlers.length)
+                handlers = Arrays.copyOf(handlers, arity + 1);
+            handlers[arity] = toHandler(method, arity);
         }
+        return handlers;
     }
 
-    private Optional<Method> getHandler(String[] paramList) {
-        var paramTypes = new Class[paramList.length + 1];
-        Arrays.fill(paramTypes, String.class);
-        paramTypes[0] = Request.class;
+    private static MethodHandle toHandler(Method method, int arity) {
+        var type = MethodType.methodType(StateResult.class, State.class, Request.class, String[].class);
         try {
-            var m = this.getClass().getMethod("doHandleRequest", paramTypes);
-            if (!StateResult.class.isAssignableFrom(m.getReturnType()))
-                return Optional.empty();
-            return Optional.of(m);
-        } catch (NoSuchMethodException e) {
-            return Optional.empty();
+            var stringsType = MethodType.methodType(StateResult.class, State.class, Request.class)
+                    .appendParameterTypes(Collections.nCopies(arity, String.class));
+            return MethodHandles.lookup().unreflect(method)
+                    .asType(stringsType)
+                    .asSpreader(String[].class, arity);
+        } catch (IllegalAccessException e) {
+            // Report it when the handler is run, like Method.invoke would
+            var thrower = MethodHandles.throwException(StateResult.class, IllegalAccessException.class).bindTo(e);
+            return MethodHandles.dropArguments(thrower, 0, type.parameterList());
         }
     }
 }
@@ -15,8 +15,19 @@ import sprt.serialization.ValidationException;
 
 /**
  * next state + response pair obtained when handling a Request
+ *
+ * A result is cacheable if its response (after the client's cookies are merged in) is always the same for the
+ *   same client cookies, so servers may write a pre-encoded copy (see {@link ResponseCache}).
  */
-public record StateResult(State nextState, Response resp) {
+public record StateResult(State nextState, Response resp, boolean cacheable) {
+    /**
+     * Transitions to the next state and returns the given response. The result is not cacheable.
+     * @param nextState state to transition to
+     * @param resp response to give client
+     */
+    public StateResult(State nextState, Response resp) {
+        this(nextState, resp, false);
+    }
     /**
      * Transitions to the next state and returns to the client the given status, prefixed message, and cookie list.
      * @param nextState state to transition to
@@ -81,4 +92,13 @@ public record StateResult(State nextState, Response resp) {
         return StateResult.exit(status, msg, new CookieList());
     }
 
+    /**
+     * Gets a copy of this result that is marked cacheable. Only use for responses that don't depend on
+     *   anything but the request's cookies (e.g. a fixed prompt).
+     * @return cacheable result
+     */
+    public StateResult asCacheable() {
+        return new StateResult(nextState, resp, true);
+    }
+
 }
\ No newline at end of file
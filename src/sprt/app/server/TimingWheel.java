@@ -0,0 +1,256 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static shared.app.AppUtil.logToFile;
+
+/**
+ * Hashed timing wheel that tracks deadlines for many connections with one thread.
+ *
+ * Each connection gets a {@link Timeout} with three deadlines: idle (no I/O progress for a while), frame (a
+ *   request started arriving but isn't finished), and session (total time connected). Each timeout is kept in
+ *   the wheel slot of its earliest deadline. Reporting activity only moves a deadline later, which is one
+ *   field write; when the slot comes around, the timeout is moved to its new slot instead of expiring
+ *   (lazy re-arm). Each tick expires everything due in one slot as a batch.
+ *
+ * Expiry callbacks run on the wheel's thread, so they should be quick (e.g., close a channel).
+ */
+public class TimingWheel implements AutoCloseable {
+    /** Default time between ticks, which is also how late a deadline may be noticed */
+    public static final long DEFAULT_TICK_MS = 100;
+    /** Default time a request may take to arrive, from its first byte */
+    public static final long DEFAULT_FRAME_MS = 10 * 1000;
+    /** Default total time a connection may stay open */
+    public static final long DEFAULT_SESSION_MS = 60 * 60 * 1000;
+
+    private static final Logger LOG = logToFile(TimingWheel.class, "connections.log");
+    // Number of slots; a power of 2. Deadlines farther off than this many ticks wait in the last slot.
+    private static final int WHEEL_SIZE = 512;
+    private static final long NONE = Long.MAX_VALUE;
+
+    /**
+     * Which deadline passed
+     */
+    public enum Kind {
+        /** No I/O progress for the idle time */
+        Idle,
+        /** A request didn't finish arriving in the frame time */
+        Frame,
+        /** The connection was open for the session time */
+        Session
+    }
+
+    /**
+     * Deadlines for one connection. Methods may be called from any thread.
+     */
+    public final class Timeout {
+        private final Consumer<Kind> onExpire;
+        private final long sessionDeadline;
+        private volatile long idleDeadline;
+        private volatile long frameDeadline = NONE;
+        private volatile boolean cancelled = false;
+        // Tick of the slot this timeout is live in. Copies left in other slots are stale. Timer thread only.
+        private long scheduledTick;
+
+        private Timeout(Consumer<Kind> onExpire) {
+            this.onExpire = onExpire;
+            long now = nowMs;
+            idleDeadline = now + idleMs;
+            sessionDeadline = now + sessionMs;
+        }
+
+        /**
+         * Records I/O progress, pushing back the idle deadline.
+         */
+        public void touch() {
+            idleDeadline = nowMs + idleMs;
+        }
+
+        /**
+         * Records that a request started arriving. Has no effect if one already has.
+         */
+        public void frameStarted() {
+            if (frameDeadline != NONE)
+                return;
+            frameDeadline = nowMs + frameMs;
+            // The frame deadline may come before the slot this is in
+            if (frameMs < idleMs)
+                inbox.add(this);
+        }
+
+        /**
+         * Records that the request being received is complete.
+         */
+        public void frameFinished() {
+            frameDeadline = NONE;
+        }
+
+        /**
+         * Stops tracking this connection. Its callback won't be run (unless it's already running).
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private long deadline() {
+            return Math.min(idleDeadline, Math.min(frameDeadline, sessionDeadline));
+        }
+
+        // Which deadline is the earliest
+        private Kind kind() {
+            long deadline = deadline();
+            if (deadline == frameDeadline)
+                return Kind.Frame;
+            return deadline == idleDeadline ? Kind.Idle : Kind.Session;
+        }
+    }
+
+    private final long tickMs;
+    private final long idleMs;
+    private final long frameMs;
+    private final long sessionMs;
+    // Timeouts by tick modulo WHEEL_SIZE. Timer thread only.
+    private final ArrayDeque<Timeout>[] slots;
+    // New and rescheduled timeouts, waiting to be put in slots by the timer thread
+    private final Queue<Timeout> inbox = new ConcurrentLinkedQueue<>();
+    // Start of the wheel's clock
+    private final long originNanos = System.nanoTime();
+    // Time of the last tick, in ms since originNanos. Coarse, but cheap to read.
+    private volatile long nowMs = 0;
+    // Index of the next tick to process. Timer thread only.
+    private long tick = 0;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a wheel with the given idle time and default tick, frame, and session times, and starts its thread.
+     * @param idleMs time a connection may go without I/O progress
+     */
+    public TimingWheel(long idleMs) {
+        this(DEFAULT_TICK_MS, idleMs, DEFAULT_FRAME_MS, DEFAULT_SESSION_MS);
+    }
+
+    /**
+     * Creates a wheel and starts its thread.
+     * @param tickMs time between ticks
+     * @param idleMs time a connection may go without I/O progress
+     * @param frameMs time a request may take to arrive, from its first byte
+     * @param sessionMs total time a connection may stay open
+     * @throws IllegalArgumentException if any time is not positive
+     */
+    public TimingWheel(long tickMs, long idleMs, long frameMs, long sessionMs) {
+        if (tickMs <= 0 || idleMs <= 0 || frameMs <= 0 || sessionMs <= 0)
+            throw new IllegalArgumentException("Times must be positive");
+        this.tickMs = tickMs;
+        this.idleMs = idleMs;
+        this.frameMs = frameMs;
+        this.sessionMs = sessionMs;
+        @SuppressWarnings("unchecked")
+        var wheel = (ArrayDeque<Timeout>[]) new ArrayDeque<?>[WHEEL_SIZE];
+        slots = wheel;
+        for (int i = 0; i < WHEEL_SIZE; ++i) {
+            slots[i] = new ArrayDeque<>();
+        }
+        thread = new NamedThreadFactory("sprt-timer", true).newThread(this::run);
+        thread.start();
+    }
+
+    /**
+     * Starts tracking a connection's deadlines.
+     * @param onExpire run (on the wheel's thread) with the kind of deadline that passed first
+     * @return the connection's timeout
+     */
+    public Timeout add(Consumer<Kind> onExpire) {
+        var timeout = new Timeout(onExpire);
+        inbox.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the wheel's thread. Pending timeouts never expire.
+     */
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+    }
+
+    private void run() {
+        var expired = new ArrayList<Timeout>();
+        while (running) {
+            long sleepMs = tick * tickMs - elapsedMs();
+            if (sleepMs > 0) {
+                try {
+                    Thread.sleep(sleepMs);
+                }
+                catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            nowMs = elapsedMs();
+
+            Timeout timeout;
+            while ((timeout = inbox.poll()) != null) {
+                if (!timeout.cancelled)
+                    schedule(timeout);
+            }
+
+            var slot = slots[slotIndex(tick)];
+            for (int n = slot.size(); n > 0; --n) {
+                timeout = slot.poll();
+                if (timeout.cancelled || timeout.scheduledTick != tick)
+                    continue;
+                if (timeout.deadline() <= nowMs) {
+                    // Any other copy in this slot is now stale
+                    timeout.scheduledTick = -1;
+                    expired.add(timeout);
+                }
+                else
+                    schedule(timeout);
+            }
+            ++tick;
+
+            for (var t : expired) {
+                try {
+                    t.onExpire.accept(t.kind());
+                }
+                catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "Timeout callback failed", e);
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    // Puts the timeout in the slot of its deadline, or the current slot if it's already due. A timeout taken from
+    //   the current slot isn't due, so it always goes in a later one.
+    private void schedule(Timeout timeout) {
+        long deadlineTick = (timeout.deadline() + tickMs - 1) / tickMs;
+        long target = Math.min(Math.max(deadlineTick, tick), tick + WHEEL_SIZE - 1);
+        timeout.scheduledTick = target;
+        slots[slotIndex(target)].add(timeout);
+    }
+
+    private static int slotIndex(long tick) {
+        return (int) (tick & (WHEEL_SIZE - 1));
+    }
+
+    private long elapsedMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - originNanos);
+    }
+}
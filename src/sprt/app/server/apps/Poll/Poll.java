@@ -49,7 +49,7 @@ public class Poll extends ServerApp {
             if (fname != null && lname != null)
                 return new StateResult(new FoodStep(fname, lname), Status.OK);
             else
-                return new StateResult(new NameStep(), Status.OK);
+                return new StateResult(new NameStep(), Status.OK).asCacheable();
         }
     }
 
@@ -40,7 +40,7 @@ public class TicTacToe extends ServerApp {
          * @throws ValidationException if response data is invalid
          */
         public StateResult doHandleRequest(Request req) throws ValidationException {
-            return new StateResult(new PlayerMoveState(), Status.OK);
+            return new StateResult(new PlayerMoveState(), Status.OK).asCacheable();
         }
     }
 
@@ -0,0 +1,146 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server.loadtest;
+
+import shared.app.AppUtil;
+import sprt.app.server.RingBufferExecutor;
+import sprt.app.server.Server;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Measures how fast tasks can be handed to a fixed pool, comparing the locked ThreadPoolExecutor the servers use
+ *   by default against the ring buffer executor with each wait strategy.
+ *
+ * Producer threads (standing in for acceptors) each submit tiny tasks as fast as they can, and the time until
+ *   every task has run is reported as handoffs per second. A producer spins while the queue is full rather than
+ *   submitting into it, so the timings aren't skewed by the cost of throwing rejections. Producers can still
+ *   race for the last free slot; the losers' rejections (retried) are counted and reported apart.
+ */
+public class ExecutorBenchmark {
+    // Rounds run before the measured ones, so the JIT has compiled the hot paths
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int MEASURED_ROUNDS = 5;
+
+    /**
+     * Runs the benchmark.
+     * @param args optionally producers (1+; default 1), workers (1+; default # processors), tasks per round (1+;
+     *             default 1000000), and queue capacity (1+; default 1024)
+     * @throws InterruptedException if interrupted while waiting for a round
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 4) {
+            System.out.println("Usage: ExecutorBenchmark [producers] [workers] [tasks] [capacity]");
+            return;
+        }
+        int producers = args.length > 0 ? AppUtil.parseIntOrExit("producers", args[0], 1, Integer.MAX_VALUE, 1) : 1;
+        int workers = args.length > 1 ? AppUtil.parseIntOrExit("workers", args[1], 1, Integer.MAX_VALUE, 1)
+                : Runtime.getRuntime().availableProcessors();
+        int tasks = args.length > 2 ? AppUtil.parseIntOrExit("tasks", args[2], 1, Integer.MAX_VALUE, 1) : 1_000_000;
+        int capacity = args.length > 3 ? AppUtil.parseIntOrExit("capacity", args[3], 1, 1 << 30, 1) : 1024;
+
+        System.out.printf("%d producers, %d workers, %d tasks/round, capacity %d%n", producers, workers, tasks,
+                capacity);
+        run("locked", null, producers, workers, tasks, capacity);
+        for (var wait : RingBufferExecutor.WaitStrategy.values()) {
+            run("ring-" + wait.name().toLowerCase(), wait, producers, workers, tasks, capacity);
+        }
+    }
+
+    // Benchmarks one kind of pool and prints the results
+    private static void run(String name, RingBufferExecutor.WaitStrategy wait, int producers, int workers,
+                            int tasks, int capacity) throws InterruptedException {
+        var pool = Server.newFixedPool("bench-" + name, workers, capacity, wait);
+        var free = freeSlots(pool);
+        try {
+            for (int i = 0; i < WARMUP_ROUNDS; ++i) {
+                round(pool, free, producers, tasks, new LongAdder());
+            }
+            long best = Long.MAX_VALUE;
+            long total = 0;
+            var rejected = new LongAdder();
+            for (int i = 0; i < MEASURED_ROUNDS; ++i) {
+                long nanos = round(pool, free, producers, tasks, rejected);
+                best = Math.min(best, nanos);
+                total += nanos;
+            }
+            System.out.printf("%-15s best %,12.0f/s   mean %,12.0f/s   rejected %,d%n", name, perSecond(tasks, best),
+                    perSecond(tasks, total / MEASURED_ROUNDS), rejected.sum());
+        }
+        finally {
+            pool.shutdownNow();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    // Gets the number of tasks the pool's queue has room for
+    private static IntSupplier freeSlots(ExecutorService pool) {
+        if (pool instanceof RingBufferExecutor ring)
+            return () -> ring.getCapacity() - ring.getQueuedCount();
+        var queue = ((ThreadPoolExecutor) pool).getQueue();
+        return queue::remainingCapacity;
+    }
+
+    // Submits tasks split among producers, and returns the nanoseconds until all have run. Adds the submissions
+    //   rejected despite free slots having been seen to rejected.
+    private static long round(ExecutorService pool, IntSupplier free, int producers, int tasks, LongAdder rejected)
+            throws InterruptedException {
+        var done = new CountDownLatch(tasks);
+        var start = new CountDownLatch(1);
+        Runnable task = done::countDown;
+        var threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; ++p) {
+            int count = tasks / producers + (p < tasks % producers ? 1 : 0);
+            var thread = new Thread(() -> {
+                try {
+                    start.await();
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < count; ++i) {
+                    while (true) {
+                        while (free.getAsInt() <= 0) {
+                            Thread.onSpinWait();
+                        }
+                        try {
+                            pool.execute(task);
+                            break;
+                        }
+                        catch (RejectedExecutionException e) {
+                            // Another producer took the slot
+                            rejected.increment();
+                        }
+                    }
+                }
+            }, "bench-producer-" + p);
+            thread.start();
+            threads.add(thread);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long nanos = System.nanoTime() - begin;
+        for (var thread : threads) {
+            thread.join();
+        }
+        return nanos;
+    }
+
+    private static double perSecond(int tasks, long nanos) {
+        return tasks * 1e9 / nanos;
+    }
+}
@@ -0,0 +1,116 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server.test;
+
+import org.junit.jupiter.api.Test;
+import sprt.app.server.AdmissionControl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControlTest {
+    private final AdmissionControl admission = new AdmissionControl(2, 3, 100, 4);
+
+    @Test
+    void limits() {
+        assertEquals(2, admission.getMaxSessions());
+        assertEquals(3, admission.getMaxQueued());
+        assertEquals(100, admission.getMaxRequestSize());
+        assertEquals(4, admission.getMaxSessionsPerConnection());
+    }
+
+    @Test
+    void defaults() {
+        var defaults = new AdmissionControl();
+        assertEquals(AdmissionControl.DEFAULT_MAX_SESSIONS, defaults.getMaxSessions());
+        assertEquals(AdmissionControl.DEFAULT_MAX_QUEUED, defaults.getMaxQueued());
+        assertEquals(AdmissionControl.DEFAULT_MAX_SESSIONS_PER_CONNECTION, defaults.getMaxSessionsPerConnection());
+    }
+
+    @Test
+    void invalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionControl(0, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionControl(1, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionControl(1, 1, -1));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionControl(1, 1, 1, 0));
+    }
+
+    // Tests that sessions are admitted up to the max, and each release makes room for one more
+    @Test
+    void admitUpToMax() {
+        assertTrue(admission.tryAdmit());
+        assertTrue(admission.tryAdmit());
+        assertEquals(2, admission.getActiveSessions());
+        assertFalse(admission.tryAdmit());
+        assertFalse(admission.tryAdmit());
+        assertEquals(2, admission.getActiveSessions());
+
+        admission.release();
+        assertEquals(1, admission.getActiveSessions());
+        assertTrue(admission.tryAdmit());
+        assertFalse(admission.tryAdmit());
+    }
+
+    // Tests that rejections for too many sessions and for a full queue are counted apart
+    @Test
+    void rejectCounters() {
+        assertEquals(0, admission.getRejectedSessions());
+        assertEquals(0, admission.getRejectedQueued());
+        admission.tryAdmit();
+        admission.tryAdmit();
+        admission.tryAdmit();
+        admission.tryAdmit();
+        assertEquals(2, admission.getRejectedSessions());
+        assertEquals(0, admission.getRejectedQueued());
+
+        admission.queueFull();
+        admission.release();
+        assertEquals(1, admission.getRejectedQueued());
+        assertEquals(2, admission.getRejectedSessions());
+        assertEquals(1, admission.getActiveSessions());
+    }
+
+    // Tests that up to max queued rejected connections are drained at once
+    @Test
+    void drainUpToMaxQueued() {
+        for (int i = 0; i < 3; ++i)
+            assertTrue(admission.tryDrain());
+        assertFalse(admission.tryDrain());
+        assertEquals(3, admission.getDraining());
+        admission.drained();
+        assertEquals(2, admission.getDraining());
+        assertTrue(admission.tryDrain());
+        // Draining doesn't use up sessions
+        assertTrue(admission.tryAdmit());
+    }
+
+    // Tests that concurrent admits never exceed the max
+    @Test
+    void concurrentAdmits() throws InterruptedException {
+        var many = new AdmissionControl(50, 1, 1);
+        var maxSeen = new AtomicInteger();
+        var threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; ++j) {
+                    if (many.tryAdmit()) {
+                        maxSeen.accumulateAndGet(many.getActiveSessions(), Math::max);
+                        many.release();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (var t : threads)
+            t.join();
+        assertTrue(maxSeen.get() <= 50);
+        assertEquals(0, many.getActiveSessions());
+    }
+}
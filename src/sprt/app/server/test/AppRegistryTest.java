@@ -0,0 +1,77 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server.test;
+
+import org.junit.jupiter.api.Test;
+import sprt.app.server.AppRegistry;
+import sprt.app.server.apps.Poll.Poll;
+import sprt.app.server.apps.TicTacToe.TicTacToe;
+import sprt.app.server.test.apps.Echo.Echo;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AppRegistryTest {
+    // Holds the test's own apps, Echo and NotAnApp
+    private static final String TEST_APPS = "sprt.app.server.test.apps";
+
+    // Tests that the default registry finds the server's apps
+    @Test
+    void defaultApps() {
+        var registry = AppRegistry.getDefault();
+        assertTrue(registry.isScanComplete());
+        assertEquals(Set.of("Poll", "TicTacToe"), registry.getAppNames());
+        assertInstanceOf(Poll.class, registry.newApp("Poll").orElseThrow());
+        assertInstanceOf(TicTacToe.class, registry.newApp("TicTacToe").orElseThrow());
+    }
+
+    // Tests that each call gives a new app
+    @Test
+    void newInstances() {
+        var registry = new AppRegistry(TEST_APPS);
+        assertNotSame(registry.newApp("Echo").orElseThrow(), registry.newApp("Echo").orElseThrow());
+    }
+
+    // Tests that a class laid out like an app but not a ServerApp is left out
+    @Test
+    void notAServerApp() {
+        var registry = new AppRegistry(TEST_APPS);
+        assertTrue(registry.isScanComplete());
+        assertEquals(Set.of("Echo"), registry.getAppNames());
+        assertInstanceOf(Echo.class, registry.newApp("Echo").orElseThrow());
+        assertTrue(registry.newApp("NotAnApp").isEmpty());
+    }
+
+    // Tests that names the scan didn't find aren't apps, and asking for them doesn't add anything
+    @Test
+    void unknownNames() {
+        var registry = new AppRegistry(TEST_APPS);
+        for (int i = 0; i < 2000; ++i)
+            assertTrue(registry.newApp("Unknown" + i).isEmpty());
+        assertTrue(registry.newApp("").isEmpty());
+        assertTrue(registry.newApp("echo").isEmpty());
+        assertTrue(registry.newApp("Poll").isEmpty());
+        assertEquals(Set.of("Echo"), registry.getAppNames());
+    }
+
+    // Tests a package with nowhere to scan, so names are looked up by class instead
+    @Test
+    void scanFailed() {
+        var registry = new AppRegistry(TEST_APPS + ".missing");
+        assertFalse(registry.isScanComplete());
+        assertEquals(Set.of(), registry.getAppNames());
+        assertTrue(registry.newApp("Echo").isEmpty());
+    }
+
+    @Test
+    void nullPackage() {
+        assertThrows(NullPointerException.class, () -> new AppRegistry(null));
+    }
+}
@@ -0,0 +1,131 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import sprt.app.server.BufferPool;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferPoolTest {
+    // Tests that leases are rounded up to the smallest size class that fits
+    @ParameterizedTest
+    @CsvSource({"0, 1024", "1, 1024", "1024, 1024", "1025, 2048", "2048, 2048", "3000, 4096",
+            "40000, 65536", "65536, 65536"})
+    void roundsToSizeClass(int minSize, int capacity) {
+        var buf = new BufferPool().lease(minSize);
+        assertEquals(capacity, buf.capacity());
+        assertTrue(buf.isDirect());
+        assertEquals(0, buf.position());
+        assertEquals(capacity, buf.limit());
+    }
+
+    // Tests that sizes above the largest class get an exact unpooled buffer, dropped when released
+    @Test
+    void aboveMaxClass() {
+        var pool = new BufferPool();
+        var buf = pool.lease(BufferPool.MAX_CLASS_SIZE + 1);
+        assertEquals(BufferPool.MAX_CLASS_SIZE + 1, buf.capacity());
+        assertTrue(buf.isDirect());
+        assertEquals(1, pool.getInUseCount());
+
+        pool.release(buf);
+        assertEquals(0, pool.getInUseCount());
+        assertEquals(0, pool.getFreeCount());
+        assertNotSame(buf, pool.lease(BufferPool.MAX_CLASS_SIZE + 1));
+        assertEquals(2, pool.getAllocatedCount());
+    }
+
+    // Tests that a released buffer is leased again, cleared, for any size in its class
+    @Test
+    void reusesReleased() {
+        var pool = new BufferPool();
+        var buf = pool.lease(1500);
+        buf.put((byte) 1).flip();
+        pool.release(buf);
+
+        var again = pool.lease(2000);
+        assertSame(buf, again);
+        assertEquals(0, again.position());
+        assertEquals(again.capacity(), again.limit());
+        assertEquals(1, pool.getAllocatedCount());
+
+        // Other classes don't take it
+        pool.release(again);
+        assertNotSame(buf, pool.lease(1024));
+        assertNotSame(buf, pool.lease(4096));
+        assertEquals(3, pool.getAllocatedCount());
+    }
+
+    // Tests the in-use, free, and allocated counters through leases and releases
+    @Test
+    void counters() {
+        var pool = new BufferPool();
+        var a = pool.lease(1024);
+        var b = pool.lease(1024);
+        var c = pool.lease(8192);
+        assertEquals(3, pool.getInUseCount());
+        assertEquals(0, pool.getFreeCount());
+        assertEquals(3, pool.getAllocatedCount());
+
+        pool.release(a);
+        pool.release(c);
+        assertEquals(1, pool.getInUseCount());
+        assertEquals(2, pool.getFreeCount());
+
+        pool.lease(100);
+        assertEquals(2, pool.getInUseCount());
+        assertEquals(1, pool.getFreeCount());
+        assertEquals(3, pool.getAllocatedCount());
+
+        pool.release(b);
+        assertEquals(1, pool.getInUseCount());
+        assertEquals(2, pool.getFreeCount());
+        assertEquals("BufferPool[inUse=1, free=2, allocated=3]", pool.toString());
+    }
+
+    // Tests that each class keeps no more than the max free buffers
+    @Test
+    void maxFreePerClass() {
+        var pool = new BufferPool(2);
+        var bufs = new ByteBuffer[3];
+        for (int i = 0; i < bufs.length; ++i)
+            bufs[i] = pool.lease(1024);
+        for (var buf : bufs)
+            pool.release(buf);
+        assertEquals(2, pool.getFreeCount());
+        assertEquals(0, pool.getInUseCount());
+
+        // Another class has its own limit
+        pool.release(pool.lease(2048));
+        assertEquals(3, pool.getFreeCount());
+    }
+
+    // Tests releasing buffers this pool didn't lease: one of a class's size is reused like its own, and one it
+    //   couldn't have leased (odd size or not direct) is dropped
+    @Test
+    void foreignBuffers() {
+        var pool = new BufferPool();
+        var other = new BufferPool().lease(2048);
+        pool.release(other);
+        assertEquals(1, pool.getFreeCount());
+        assertSame(other, pool.lease(2048));
+
+        pool.release(ByteBuffer.allocateDirect(1500));
+        pool.release(ByteBuffer.allocate(1024));
+        assertEquals(0, pool.getFreeCount());
+        var buf = pool.lease(1024);
+        assertTrue(buf.isDirect());
+        assertEquals(1024, buf.capacity());
+    }
+}
@@ -0,0 +1,102 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server.test;
+
+import org.junit.jupiter.api.Test;
+import sprt.app.server.ResponseCache;
+import sprt.serialization.CookieList;
+import sprt.serialization.Response;
+import sprt.serialization.Status;
+import sprt.serialization.ValidationException;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResponseCacheTest {
+    private final ResponseCache cache = new ResponseCache(4);
+
+    // Tests that the same response gives back the same encoding
+    @Test
+    void reusesEncoding() throws ValidationException {
+        var first = cache.get(prompt(new CookieList()));
+        assertSame(first, cache.get(prompt(new CookieList())));
+        assertEquals(1, cache.size());
+    }
+
+    // Tests that a full cache still stores new responses, evicting the least recently used
+    @Test
+    void evictsLeastRecentlyUsed() throws ValidationException {
+        var common = cache.get(prompt("Name> "));
+        var oldest = cache.get(prompt("Name0> "));
+        for (int i = 1; i < 10; ++i) {
+            cache.get(prompt("Name" + i + "> "));
+            // Keep the common one in use
+            assertSame(common, cache.get(prompt("Name> ")));
+        }
+        assertEquals(4, cache.size());
+        var latest = cache.get(prompt("Name9> "));
+        assertSame(latest, cache.get(prompt("Name9> ")));
+        // Evicted, so encoded again
+        assertNotSame(oldest, cache.get(prompt("Name0> ")));
+    }
+
+    // Tests that responses with cookies are encoded but not stored
+    @Test
+    void cookiesNotStored() throws ValidationException {
+        var cookies = new CookieList().add("FName", "Bob");
+        var encoded = cache.get(prompt(cookies));
+        assertEquals(0, cache.size());
+        assertNotSame(encoded, cache.get(prompt(cookies)));
+        assertEquals(prompt(cookies).toString(), encoded.toString());
+        assertArrayEquals(bytes(prompt(cookies)), bytes(encoded));
+    }
+
+    // Tests that error responses are cached like any other
+    @Test
+    void error() throws ValidationException {
+        assertSame(cache.error("Oops"), cache.error("Oops"));
+        assertSame(cache.error("Oops"), cache.get(new Response(Status.ERROR, Response.NO_NEXT_FUNCTION, "Oops")));
+        assertEquals(1, cache.size());
+    }
+
+    // Tests that preloaded errors are kept apart, and not evicted however many other responses pass through
+    @Test
+    void preloadedErrorsKept() throws ValidationException {
+        cache.preloadErrors("Busy");
+        var busy = cache.error("Busy");
+        assertEquals(0, cache.size());
+        for (int i = 0; i < 10; ++i)
+            cache.get(prompt("Name" + i + "> "));
+        assertSame(busy, cache.error("Busy"));
+        assertSame(busy, cache.get(new Response(Status.ERROR, Response.NO_NEXT_FUNCTION, "Busy")));
+        assertArrayEquals(bytes(new Response(Status.ERROR, Response.NO_NEXT_FUNCTION, "Busy")), bytes(busy));
+    }
+
+    private static Response prompt(CookieList cookies) throws ValidationException {
+        return new Response(Status.OK, "NameStep", "Name (First Last)> ", cookies);
+    }
+
+    private static Response prompt(String message) throws ValidationException {
+        return new Response(Status.OK, "NameStep", message);
+    }
+
+    private static byte[] bytes(Response response) {
+        var buf = ByteBuffer.allocate(response.encodedLength());
+        response.encode(buf);
+        return buf.array();
+    }
+
+    private static byte[] bytes(ResponseCache.Encoded encoded) {
+        var buf = encoded.buffer();
+        var bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,251 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server.test;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import sprt.app.server.RingBufferExecutor;
+import sprt.app.server.RingBufferExecutor.WaitStrategy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RingBufferExecutorTest {
+    // How long to wait for something that should happen
+    private static final long WAIT_MS = 5 * 1000;
+    // Long enough for idle Park workers to get through spinning and yielding and park
+    private static final long PARK_MS = 200;
+    private static final ThreadFactory DAEMONS = r -> {
+        var t = new Thread(r);
+        t.setDaemon(true);
+        return t;
+    };
+
+    private RingBufferExecutor executor;
+    // Released to let a blocking task finish
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void stop() {
+        release.countDown();
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    @Test
+    void capacityRoundsUp() {
+        executor = new RingBufferExecutor(1, 5, WaitStrategy.Park, DAEMONS);
+        assertEquals(8, executor.getCapacity());
+        executor.shutdownNow();
+        executor = new RingBufferExecutor(1, 4, WaitStrategy.Park, DAEMONS);
+        assertEquals(4, executor.getCapacity());
+        executor.shutdownNow();
+        executor = new RingBufferExecutor(1, 1, WaitStrategy.Park, DAEMONS);
+        assertEquals(1, executor.getCapacity());
+    }
+
+    @Test
+    void invalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new RingBufferExecutor(0, 4, WaitStrategy.Park, DAEMONS));
+        assertThrows(IllegalArgumentException.class, () -> new RingBufferExecutor(1, 0, WaitStrategy.Park, DAEMONS));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RingBufferExecutor(1, (1 << 30) + 1, WaitStrategy.Park, DAEMONS));
+        assertThrows(NullPointerException.class, () -> new RingBufferExecutor(1, 4, null, DAEMONS));
+        assertThrows(NullPointerException.class, () -> new RingBufferExecutor(1, 4, WaitStrategy.Park, null));
+    }
+
+    @Test
+    void nullTask() {
+        executor = new RingBufferExecutor(1, 4, WaitStrategy.Park, DAEMONS);
+        assertThrows(NullPointerException.class, () -> executor.execute(null));
+    }
+
+    // Tests that tasks are taken until the ring is full, and the next one is rejected
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.class)
+    void rejectsWhenFull(WaitStrategy wait) throws InterruptedException {
+        executor = new RingBufferExecutor(1, 4, wait, DAEMONS);
+        occupyWorker();
+        var ran = new CountDownLatch(4);
+        for (int i = 0; i < 4; ++i)
+            executor.execute(ran::countDown);
+        assertEquals(4, executor.getQueuedCount());
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(ran::countDown));
+
+        release.countDown();
+        assertTrue(ran.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(0, executor.getQueuedCount());
+    }
+
+    // Tests that one worker runs tasks in the order they were queued
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.class)
+    void fifoOrder(WaitStrategy wait) throws InterruptedException {
+        executor = new RingBufferExecutor(1, 16, wait, DAEMONS);
+        occupyWorker();
+        var order = Collections.synchronizedList(new ArrayList<Integer>());
+        var ran = new CountDownLatch(16);
+        for (int i = 0; i < 16; ++i) {
+            int n = i;
+            executor.execute(() -> {
+                order.add(n);
+                ran.countDown();
+            });
+        }
+        release.countDown();
+        assertTrue(ran.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(range(16), order);
+    }
+
+    // Tests many laps around a small ring, so every slot is reused many times
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.class)
+    void wrapsAround(WaitStrategy wait) throws InterruptedException {
+        executor = new RingBufferExecutor(1, 4, wait, DAEMONS);
+        int count = 1000;
+        var order = Collections.synchronizedList(new ArrayList<Integer>());
+        var ran = new CountDownLatch(count);
+        for (int i = 0; i < count; ++i) {
+            int n = i;
+            Runnable task = () -> {
+                order.add(n);
+                ran.countDown();
+            };
+            while (true) {
+                try {
+                    executor.execute(task);
+                    break;
+                }
+                catch (RejectedExecutionException e) {
+                    // Full; wait for the worker to take some
+                    Thread.yield();
+                }
+            }
+        }
+        assertTrue(ran.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(range(count), order);
+    }
+
+    // Tests that shutdown stops new tasks but still runs the queued ones
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.class)
+    void shutdownDrains(WaitStrategy wait) throws InterruptedException {
+        executor = new RingBufferExecutor(2, 8, wait, DAEMONS);
+        occupyWorker();
+        occupyWorker();
+        var ran = new CountDownLatch(5);
+        for (int i = 0; i < 5; ++i)
+            executor.execute(ran::countDown);
+        executor.shutdown();
+        assertTrue(executor.isShutdown());
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(ran::countDown));
+        assertFalse(executor.isTerminated());
+
+        release.countDown();
+        assertTrue(executor.awaitTermination(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(0, ran.getCount());
+        assertTrue(executor.isTerminated());
+    }
+
+    // Tests that shutdownNow hands back the queued tasks, in order, without running them
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.class)
+    void shutdownNowReturnsQueued(WaitStrategy wait) throws InterruptedException {
+        executor = new RingBufferExecutor(1, 8, wait, DAEMONS);
+        occupyWorker();
+        var ran = new CountDownLatch(1);
+        var queued = new ArrayList<Runnable>();
+        for (int i = 0; i < 5; ++i) {
+            Runnable task = ran::countDown;
+            queued.add(task);
+            executor.execute(task);
+        }
+        // Interrupts the blocked worker, so it stops without waiting for release
+        assertEquals(queued, executor.shutdownNow());
+        assertTrue(executor.awaitTermination(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(1, ran.getCount());
+        assertEquals(0, executor.getQueuedCount());
+    }
+
+    // Tests that a task given to an idle Park pool wakes a parked worker, again and again
+    @Test
+    void wakesParkedWorker() throws InterruptedException {
+        executor = new RingBufferExecutor(1, 4, WaitStrategy.Park, DAEMONS);
+        for (int i = 0; i < 5; ++i) {
+            Thread.sleep(PARK_MS);
+            var ran = new CountDownLatch(1);
+            executor.execute(ran::countDown);
+            assertTrue(ran.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    // Tests that tasks given at once to an idle Park pool wake every worker they need
+    @Test
+    void wakesAllParkedWorkers() throws InterruptedException {
+        int numThreads = 3;
+        executor = new RingBufferExecutor(numThreads, 4, WaitStrategy.Park, DAEMONS);
+        Thread.sleep(PARK_MS);
+        // Each task waits for the others, so all finish only if each got its own worker
+        var running = new CountDownLatch(numThreads);
+        var done = new CountDownLatch(numThreads);
+        for (int i = 0; i < numThreads; ++i) {
+            executor.execute(() -> {
+                running.countDown();
+                try {
+                    if (running.await(WAIT_MS, TimeUnit.MILLISECONDS))
+                        done.countDown();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        assertTrue(done.await(2 * WAIT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    // Tests that shutdown wakes parked workers so they can finish
+    @Test
+    void shutdownWakesParkedWorkers() throws InterruptedException {
+        executor = new RingBufferExecutor(3, 4, WaitStrategy.Park, DAEMONS);
+        Thread.sleep(PARK_MS);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(WAIT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    // Gives a worker a task that blocks until release, and waits until it's running
+    private void occupyWorker() throws InterruptedException {
+        var started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(WAIT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private static List<Integer> range(int count) {
+        var list = new ArrayList<Integer>();
+        for (int i = 0; i < count; ++i)
+            list.add(i);
+        return list;
+    }
+}
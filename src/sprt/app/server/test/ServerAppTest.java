@@ -0,0 +1,154 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server.test;
+
+import org.junit.jupiter.api.Test;
+import sprt.app.server.ServerApp;
+import sprt.app.server.State;
+import sprt.app.server.StateResult;
+import sprt.app.server.apps.Poll.Poll;
+import sprt.serialization.CookieList;
+import sprt.serialization.Request;
+import sprt.serialization.Response;
+import sprt.serialization.Status;
+import sprt.serialization.ValidationException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests running batch requests through {@link ServerApp#handleSteps(Request)}
+ */
+public class ServerAppTest {
+    private static final String[] NO_PARAMS = {};
+
+    // State that records the cookies each request brings, and sets a cookie named for its parameter
+    public static class CountState extends State {
+        private final List<CookieList> seen = new ArrayList<>();
+
+        @Override
+        public String name() {
+            return "Count";
+        }
+
+        @Override
+        public String prompt() {
+            return "Count> ";
+        }
+
+        public StateResult doHandleRequest(Request req, String n) throws ValidationException {
+            seen.add(new CookieList(req.getCookieList()));
+            return new StateResult(this, Status.OK, new CookieList().add("Step" + n, n));
+        }
+    }
+
+    // Tests a whole Poll session in one batch
+    @Test
+    void wholeSession() throws ValidationException {
+        var app = new Poll();
+        var response = app.handleSteps(batch("Poll", NO_PARAMS, new CookieList().add("Repeat", "1"),
+                step("NameStep", "Bob", "Smith"), step("FoodStep", "Mexican")));
+        assertEquals(Status.OK, response.getStatus());
+        assertEquals(Response.NO_NEXT_FUNCTION, response.getFunction());
+        assertEquals("20% + 2% off at Tacopia", response.getMessage());
+        assertNull(app.getState());
+    }
+
+    // Tests that the final response carries every cookie set during the batch, not just the last step's
+    @Test
+    void finalResponseHasAllCookies() throws ValidationException {
+        var response = new Poll().handleSteps(batch("Poll", NO_PARAMS, new CookieList(),
+                step("NameStep", "Bob", "Smith"), step("FoodStep", "Mexican")));
+        assertEquals(new CookieList().add("FName", "Bob").add("LName", "Smith").add("Repeat", "1"),
+                response.getCookieList());
+    }
+
+    // Tests that each step gets the request's cookies plus those set by the steps before it
+    @Test
+    void stepsSeeEarlierCookies() throws ValidationException {
+        var app = new ServerApp() {};
+        var state = new CountState();
+        app.gotoState(state);
+        var response = app.handleSteps(batch("Count", new String[] {"0"}, new CookieList().add("Sent", "x"),
+                step("Count", "1"), step("Count", "2")));
+        assertEquals(List.of(
+                new CookieList().add("Sent", "x"),
+                new CookieList().add("Sent", "x").add("Step0", "0"),
+                new CookieList().add("Sent", "x").add("Step0", "0").add("Step1", "1")), state.seen);
+        assertEquals(Status.OK, response.getStatus());
+        assertEquals("Count", response.getFunction());
+        assertEquals(new CookieList().add("Step0", "0").add("Step1", "1").add("Step2", "2"),
+                response.getCookieList());
+    }
+
+    // Tests that the batch stops at the first ERROR response, so later steps don't run
+    @Test
+    void stopsAtError() throws ValidationException {
+        var app = new Poll();
+        var response = app.handleSteps(batch("Poll", NO_PARAMS, new CookieList(),
+                step("NameStep", "Bob"), step("NameStep", "Bob", "Smith"), step("FoodStep", "Mexican")));
+        assertEquals(Status.ERROR, response.getStatus());
+        assertEquals("NameStep", response.getFunction());
+        assertEquals("Invalid number of parameters. Name (First Last)> ", response.getMessage());
+        assertEquals(new CookieList(), response.getCookieList());
+        assertEquals("NameStep", app.getState().name());
+        assertFalse(app.isResponseCacheable());
+    }
+
+    // Tests that the batch stops once the app exits, leaving any steps after that unrun
+    @Test
+    void stopsAtExit() throws ValidationException {
+        var app = new Poll();
+        var response = app.handleSteps(batch("Poll", NO_PARAMS, new CookieList(),
+                step("NameStep", "Bob", "Smith"), step("FoodStep", "Mexican"), step("Poll")));
+        assertEquals(Status.OK, response.getStatus());
+        assertEquals(Response.NO_NEXT_FUNCTION, response.getFunction());
+        assertEquals("20% + 1% off at Tacopia", response.getMessage());
+        assertEquals(new CookieList().add("FName", "Bob").add("LName", "Smith").add("Repeat", "1"),
+                response.getCookieList());
+        assertNull(app.getState());
+        assertFalse(app.isResponseCacheable());
+    }
+
+    // Tests that a step naming the wrong function gets the same error as a wrong function in its own request
+    @Test
+    void wrongFunction() throws ValidationException {
+        var app = new Poll();
+        var response = app.handleSteps(batch("Poll", NO_PARAMS, new CookieList(),
+                step("FoodStep", "Mexican"), step("NameStep", "Bob", "Smith")));
+        assertEquals(Status.ERROR, response.getStatus());
+        assertEquals("NameStep", response.getFunction());
+        assertEquals("Incorrect function FoodStep. Should be NameStep", response.getMessage());
+        assertEquals("NameStep", app.getState().name());
+    }
+
+    // Tests that a batch stopped after a cacheable response doesn't leave its result marked cacheable
+    @Test
+    void stoppedBatchNotCacheable() throws ValidationException {
+        // Poll's first prompt is cacheable on its own
+        var app = new Poll();
+        app.handleSteps(new Request("Poll", NO_PARAMS, new CookieList()));
+        assertTrue(app.isResponseCacheable());
+
+        app = new Poll();
+        app.handleSteps(batch("Poll", NO_PARAMS, new CookieList(), step("FoodStep", "Mexican")));
+        assertFalse(app.isResponseCacheable());
+    }
+
+    private static Request batch(String function, String[] params, CookieList cookies, Request.Step... steps)
+            throws ValidationException {
+        return new Request(function, params, cookies).setNextSteps(List.of(steps));
+    }
+
+    private static Request.Step step(String function, String... params) throws ValidationException {
+        return new Request.Step(function, params);
+    }
+}
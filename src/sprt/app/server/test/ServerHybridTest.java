@@ -0,0 +1,90 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server.test;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import sprt.app.server.Server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs a server in this JVM in hybrid mode, with one worker thread. A client sending its request slowly must not
+ *   hold that thread, so another client is served in the meantime.
+ */
+public class ServerHybridTest {
+    private static final String POLL = "SPRT/1.0 Q RUN Poll\r\n\r\n";
+    // Delay between the bytes a slow client sends
+    private static final int SLOW_DELAY_MS = 100;
+    // How long a client waits for the server
+    private static final int TIMEOUT_MS = 10 * 1000;
+
+    private static int port;
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        try (var free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        var server = new Server(port, 1, Server.Mode.Hybrid);
+        var thread = new Thread(server::go, "hybrid-test-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Test
+    void slowClientDoesNotHoldThread() throws IOException, InterruptedException, ExecutionException {
+        try (var slow = new Socket("localhost", port); var fast = new Socket("localhost", port)) {
+            var slowIn = responses(slow);
+            var fastIn = responses(fast);
+            var slowSent = CompletableFuture.runAsync(() -> {
+                try {
+                    for (byte b : POLL.getBytes(StandardCharsets.US_ASCII)) {
+                        slow.getOutputStream().write(b);
+                        TimeUnit.MILLISECONDS.sleep(SLOW_DELAY_MS);
+                    }
+                }
+                catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            send(fast, POLL);
+            assertEquals("SPRT/1.0 R OK NameStep Name (First Last)> ", fastIn.next());
+            send(fast, "SPRT/1.0 Q RUN NameStep Bob Smith\r\n\r\n");
+            assertEquals("SPRT/1.0 R OK FoodStep Bob's Food Mood> \r\nFName=Bob\r\nLName=Smith", fastIn.next());
+            send(fast, "SPRT/1.0 Q RUN FoodStep Italian\r\nLName=Smith\r\nFName=Bob\r\n\r\n");
+            assertEquals("SPRT/1.0 R OK NULL 25% + 1% off at Pastatic\r\nFName=Bob\r\nLName=Smith\r\nRepeat=1",
+                    fastIn.next());
+            assertFalse(slowSent.isDone(), "Fast client should finish while the slow one is still sending");
+
+            slowSent.get();
+            assertEquals("SPRT/1.0 R OK NameStep Name (First Last)> ", slowIn.next());
+        }
+    }
+
+    private static void send(Socket client, String msg) throws IOException {
+        client.getOutputStream().write(msg.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // Reads the responses from a socket, one per next()
+    private static Scanner responses(Socket socket) throws IOException {
+        socket.setSoTimeout(TIMEOUT_MS);
+        return new Scanner(socket.getInputStream(), StandardCharsets.US_ASCII).useDelimiter("\r\n\r\n");
+    }
+}
@@ -0,0 +1,189 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server.test;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import sprt.app.server.AdmissionControl;
+import sprt.app.server.ServerNIO;
+import sprt.serialization.RequestParser;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs ServerNIO in this JVM and talks to it over sockets.
+ */
+public class ServerNIOTest {
+    private static final String POLL = "SPRT/1.0 Q RUN Poll\r\n\r\n";
+    private static final String NAME = "SPRT/1.0 Q RUN NameStep Bob Smith\r\n\r\n";
+    private static final String FOOD = "SPRT/1.0 Q RUN FoodStep Mexican\r\nFName=Bob\r\nLName=Smith\r\n\r\n";
+    private static final String NAME_PROMPT = "SPRT/1.0 R OK NameStep Name (First Last)> \r\n\r\n";
+    private static final String FOOD_PROMPT = "SPRT/1.0 R OK FoodStep Bob's Food Mood> \r\nFName=Bob\r\nLName=Smith\r\n\r\n";
+    private static final String OFFER = "SPRT/1.0 R OK NULL 20% + 1% off at Tacopia\r\nFName=Bob\r\nLName=Smith\r\n"
+            + "Repeat=1\r\n\r\n";
+    private static final String BUSY = "SPRT/1.0 R ERROR NULL Server busy\r\n\r\n";
+    // How long a client waits for the server
+    private static final int TIMEOUT_MS = 10 * 1000;
+    // Big enough that a request's cookies, echoed back, don't fit in the sockets' buffers
+    private static final int MAX_REQUEST_SIZE = 16 * 1024 * 1024;
+    // Max sessions of the server that turns connections away
+    private static final int MAX_SESSIONS = 2;
+
+    // Server with keep-alive (two sessions per connection) and room for big requests
+    private static int port;
+    // Server that admits at most MAX_SESSIONS at once
+    private static int limitedPort;
+    private static ServerNIO limited;
+
+    @BeforeAll
+    static void startServers() throws IOException {
+        port = freePort();
+        new ServerNIO(port, 1, new AdmissionControl(AdmissionControl.DEFAULT_MAX_SESSIONS,
+                AdmissionControl.DEFAULT_MAX_QUEUED, MAX_REQUEST_SIZE, 2)).start();
+        limitedPort = freePort();
+        limited = new ServerNIO(limitedPort, 1, new AdmissionControl(MAX_SESSIONS,
+                AdmissionControl.DEFAULT_MAX_QUEUED, RequestParser.DEFAULT_MAX_MESSAGE_SIZE));
+        limited.start();
+    }
+
+    // Tests a whole Poll session, one request at a time, then a second one over the same connection
+    @Test
+    void pollSession() throws IOException {
+        try (var client = connect(port)) {
+            var in = client.getInputStream();
+            for (int session = 1; session <= 2; ++session) {
+                send(client, POLL);
+                assertEquals(NAME_PROMPT, readResponse(in));
+                send(client, NAME);
+                assertEquals(FOOD_PROMPT, readResponse(in));
+                send(client, FOOD);
+                assertEquals(OFFER, readResponse(in));
+            }
+            // That was the last session the connection may run
+            assertEquals(-1, in.read());
+        }
+    }
+
+    // Tests that pipelined requests are answered in order, all with one write
+    @Test
+    void pipelined() throws IOException {
+        try (var client = connect(port)) {
+            send(client, POLL + NAME + FOOD);
+            var in = client.getInputStream();
+            // One write arrives together, so the first read gets every response
+            var first = new byte[64 * 1024];
+            int len = in.read(first);
+            assertEquals(NAME_PROMPT + FOOD_PROMPT + OFFER, new String(first, 0, len, StandardCharsets.US_ASCII));
+        }
+    }
+
+    // Tests a response too big to write at once: the rest is written when the socket is writable again, and the
+    //   request pipelined after it is handled once it's done
+    @Test
+    void partialWrite() throws IOException, InterruptedException {
+        // 8 MB of cookies, named in the order they're encoded
+        var cookies = new StringBuilder();
+        var value = "V".repeat(2000);
+        for (int i = 0; i < 4000; ++i)
+            cookies.append(String.format("C%04d=", i)).append(value).append("\r\n");
+        var expected = "SPRT/1.0 R OK NameStep Name (First Last)> \r\n" + cookies + "\r\n";
+
+        try (var client = new Socket()) {
+            // Keep the client's buffer small, so the server's write backs up
+            client.setReceiveBufferSize(4 * 1024);
+            client.connect(new InetSocketAddress("localhost", port));
+            client.setSoTimeout(TIMEOUT_MS);
+            var sent = CompletableFuture.runAsync(() -> {
+                try {
+                    send(client, "SPRT/1.0 Q RUN Poll\r\n" + cookies + "\r\n" + NAME);
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            // Don't read until the server has filled its socket's buffer
+            TimeUnit.MILLISECONDS.sleep(500);
+
+            var in = new BufferedInputStream(client.getInputStream());
+            assertEquals(expected, readResponse(in));
+            assertTrue(readResponse(in).startsWith("SPRT/1.0 R OK FoodStep Bob's Food Mood> \r\n"));
+            sent.join();
+        }
+    }
+
+    // Tests that connections past the max sessions get "Server busy" and are closed, and counted
+    @Test
+    void rejectPastMaxSessions() throws IOException {
+        var admission = limited.getAdmissionControl();
+        long rejectedBefore = admission.getRejectedSessions();
+        var held = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i < MAX_SESSIONS; ++i) {
+                var client = connect(limitedPort);
+                held.add(client);
+                send(client, POLL);
+                assertEquals(NAME_PROMPT, readResponse(client.getInputStream()));
+            }
+            try (var rejected = connect(limitedPort)) {
+                send(rejected, POLL);
+                var in = rejected.getInputStream();
+                assertEquals(BUSY, readResponse(in));
+                assertEquals(-1, in.read());
+            }
+            assertEquals(rejectedBefore + 1, admission.getRejectedSessions());
+        }
+        finally {
+            for (var client : held)
+                client.close();
+        }
+    }
+
+    private static Socket connect(int port) throws IOException {
+        var client = new Socket("localhost", port);
+        client.setSoTimeout(TIMEOUT_MS);
+        return client;
+    }
+
+    private static void send(Socket client, String msg) throws IOException {
+        client.getOutputStream().write(msg.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // Reads one response, through the blank line that ends it
+    private static String readResponse(InputStream in) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        // Last four bytes read
+        int last = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            bytes.write(b);
+            last = last << 8 | b;
+            if (last == ('\r' << 24 | '\n' << 16 | '\r' << 8 | '\n'))
+                break;
+        }
+        return bytes.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static int freePort() throws IOException {
+        try (var free = new ServerSocket(0)) {
+            return free.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server.test;
+
+import org.junit.jupiter.api.Test;
+import sprt.app.server.ServerApp;
+import sprt.app.server.State;
+import sprt.app.server.StateResult;
+import sprt.serialization.CookieList;
+import sprt.serialization.Request;
+import sprt.serialization.Response;
+import sprt.serialization.Status;
+import sprt.serialization.TokenTable;
+import sprt.serialization.ValidationException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StateTest {
+    private final ServerApp app = new ServerApp() {};
+
+    // State whose instances each have their own name
+    public static class NumberedState extends State {
+        private final int number;
+
+        public NumberedState(int number) {
+            this.number = number;
+        }
+
+        @Override
+        public String name() {
+            return "Numbered" + number;
+        }
+
+        @Override
+        public String prompt() {
+            return "Number> ";
+        }
+    }
+
+    // State whose handlers fail: with an Error when given no parameters, else with an exception
+    public static class FailingState extends State {
+        @Override
+        public String name() {
+            return "Failing";
+        }
+
+        @Override
+        public String prompt() {
+            return "Fail> ";
+        }
+
+        public StateResult doHandleRequest(Request req) {
+            throw new AssertionError("Handler failed");
+        }
+
+        public StateResult doHandleRequest(Request req, String param) {
+            throw new IllegalStateException("Handler failed");
+        }
+    }
+
+    // Tests that an Error from a handler gets the server error response instead of escaping
+    @Test
+    void handlerError() throws ValidationException {
+        app.gotoState(new FailingState());
+        var response = app.handleRequest(new Request("Failing", new String[0], new CookieList()));
+        assertEquals(Status.ERROR, response.getStatus());
+        assertEquals(Response.NO_NEXT_FUNCTION, response.getFunction());
+        assertEquals("A server error occurred processing the request.", response.getMessage());
+    }
+
+    // Tests that an exception from a handler gets the server error response
+    @Test
+    void handlerException() throws ValidationException {
+        app.gotoState(new FailingState());
+        var response = app.handleRequest(new Request("Failing", new String[] {"x"}, new CookieList()));
+        assertEquals(Status.ERROR, response.getStatus());
+        assertEquals("A server error occurred processing the request.", response.getMessage());
+    }
+
+    // Tests that entering states pins only the first name of each State class
+    @Test
+    void pinsOncePerClass() {
+        for (int i = 0; i < 5; ++i)
+            app.gotoState(new NumberedState(i));
+        assertTrue(TokenTable.isPinned("Numbered0"));
+        for (int i = 1; i < 5; ++i)
+            assertFalse(TokenTable.isPinned("Numbered" + i));
+    }
+}
@@ -0,0 +1,129 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server.test;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import sprt.app.server.TimingWheel;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingWheelTest {
+    // Tick used by most tests
+    private static final long TICK_MS = 5;
+    // Long enough that a deadline a test doesn't look at never passes
+    private static final long NEVER_MS = 60 * 1000;
+    // How long to wait for an expiry that should happen
+    private static final long WAIT_MS = 5 * 1000;
+    // How early an expiry may seem. Deadlines are set from the wheel's clock, which is only updated each tick,
+    //   so it can lag behind when the wheel's thread is slow to be scheduled.
+    private static final long SLACK_MS = 50;
+
+    private TimingWheel wheel;
+    // Kinds passed to expiry callbacks, in order
+    private final BlockingQueue<TimingWheel.Kind> expired = new LinkedBlockingQueue<>();
+
+    @AfterEach
+    void closeWheel() {
+        if (wheel != null)
+            wheel.close();
+    }
+
+    @Test
+    void idleExpiry() throws InterruptedException {
+        wheel = new TimingWheel(TICK_MS, 100, NEVER_MS, NEVER_MS);
+        long start = System.nanoTime();
+        wheel.add(expired::add);
+        assertEquals(TimingWheel.Kind.Idle, expired.poll(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(elapsedMs(start) >= 100 - SLACK_MS);
+    }
+
+    @Test
+    void frameExpiry() throws InterruptedException {
+        wheel = new TimingWheel(TICK_MS, NEVER_MS, 100, NEVER_MS);
+        long start = System.nanoTime();
+        wheel.add(expired::add).frameStarted();
+        assertEquals(TimingWheel.Kind.Frame, expired.poll(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(elapsedMs(start) >= 100 - SLACK_MS);
+    }
+
+    // Tests that a finished request's frame deadline no longer applies
+    @Test
+    void frameFinished() throws InterruptedException {
+        wheel = new TimingWheel(TICK_MS, NEVER_MS, 50, NEVER_MS);
+        var timeout = wheel.add(expired::add);
+        timeout.frameStarted();
+        timeout.frameFinished();
+        assertNull(expired.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    // Tests that the session deadline passes even though the connection stays busy
+    @Test
+    void sessionExpiry() throws InterruptedException {
+        wheel = new TimingWheel(TICK_MS, 200, NEVER_MS, 400);
+        long start = System.nanoTime();
+        var timeout = wheel.add(expired::add);
+        TimingWheel.Kind kind;
+        while ((kind = expired.poll(20, TimeUnit.MILLISECONDS)) == null && elapsedMs(start) < WAIT_MS)
+            timeout.touch();
+        assertEquals(TimingWheel.Kind.Session, kind);
+        assertTrue(elapsedMs(start) >= 400 - SLACK_MS);
+    }
+
+    // Tests that activity keeps pushing back the idle deadline
+    @Test
+    void touchPostponesExpiry() throws InterruptedException {
+        wheel = new TimingWheel(TICK_MS, 100, NEVER_MS, NEVER_MS);
+        var timeout = wheel.add(expired::add);
+        long start = System.nanoTime();
+        while (elapsedMs(start) < 500) {
+            timeout.touch();
+            assertNull(expired.poll(20, TimeUnit.MILLISECONDS));
+        }
+        long idleStart = System.nanoTime();
+        assertEquals(TimingWheel.Kind.Idle, expired.poll(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(elapsedMs(idleStart) >= 100 - SLACK_MS - 20);
+    }
+
+    @Test
+    void cancelSuppressesCallback() throws InterruptedException {
+        wheel = new TimingWheel(TICK_MS, 50, NEVER_MS, NEVER_MS);
+        wheel.add(expired::add).cancel();
+        // A timeout added after it still expires, so the wheel is running
+        wheel.add(expired::add);
+        assertEquals(TimingWheel.Kind.Idle, expired.poll(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertNull(expired.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    // Tests a deadline more ticks away than the wheel has slots
+    @Test
+    void deadlinePastWheel() throws InterruptedException {
+        // 1 ms ticks, so 800 ms is more than once around the wheel. Expiring early would mean it was taken as
+        //   due when its slot first came around.
+        wheel = new TimingWheel(1, 800, NEVER_MS, NEVER_MS);
+        long start = System.nanoTime();
+        wheel.add(expired::add);
+        assertEquals(TimingWheel.Kind.Idle, expired.poll(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(elapsedMs(start) >= 800 - SLACK_MS);
+    }
+
+    @Test
+    void invalidTimes() {
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel(0, 1, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel(1, 1, -1, 1));
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
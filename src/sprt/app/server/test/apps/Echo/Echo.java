@@ -0,0 +1,17 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server.test.apps.Echo;
+
+import sprt.app.server.ServerApp;
+
+/**
+ * App found by AppRegistryTest's scan. Does nothing.
+ */
+public class Echo extends ServerApp {
+}
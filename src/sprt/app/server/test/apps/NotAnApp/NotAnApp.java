@@ -0,0 +1,15 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.app.server.test.apps.NotAnApp;
+
+/**
+ * Laid out like an app for AppRegistryTest's scan, but not a ServerApp, so the registry must leave it out.
+ */
+public class NotAnApp {
+}
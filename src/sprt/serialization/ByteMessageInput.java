@@ -0,0 +1,200 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.serialization;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+
+import static sprt.serialization.Message.SPRT_CHARSET;
+import static sprt.serialization.Util.checkNull;
+
+/**
+ * Deserialization input source that reads ASCII bytes directly out of a ByteBuffer.
+ *
+ * Unlike {@link MessageInput}, there is no Reader, charset decoder, or char buffer involved;
+ * peeking is just an index lookup. Parsing methods mirror those of MessageInput and {@link Parsing}
+ * and throw the same exceptions for the same input.
+ */
+final class ByteMessageInput {
+    // Max number of chars to include in the token of a ValidationException for a bad token
+    private static final int BAD_TOKEN_PREVIEW = 10;
+
+    // Buffer being read. Only absolute gets are used, so its position is untouched until commit().
+    private final ByteBuffer buf;
+    // Absolute index of the next byte to read
+    private int pos;
+    // Absolute index one past the last readable byte
+    private final int limit;
+
+    /**
+     * Creates an input that reads the bytes between the buffer's position and limit.
+     * @param buf buffer to read
+     * @throws NullPointerException if buf is null
+     */
+    ByteMessageInput(ByteBuffer buf) {
+        this.buf = checkNull(buf, "buf");
+        this.pos = buf.position();
+        this.limit = buf.limit();
+    }
+
+    /**
+     * Moves the underlying buffer's position past everything consumed so far.
+     */
+    void commit() {
+        buf.position(pos);
+    }
+
+    /**
+     * Skips exactly n bytes.
+     * @param n number of bytes to skip
+     * @throws EOFException if fewer than n bytes remain
+     */
+    void skip(int n) throws EOFException {
+        if (limit - pos < n) {
+            throw new EOFException("Couldn't skip " + n + " characters in stream");
+        }
+        pos += n;
+    }
+
+    /**
+     * Consumes and returns the next token (alphanumeric String).
+     * @return a String of at least one alphanumeric character.
+     * @throws ValidationException if the next character is not alphanumeric
+     * @throws EOFException if no data remains
+     */
+    String nextToken() throws ValidationException, EOFException {
+        int start = pos;
+        skipToken();
+        return string(start, pos);
+    }
+
+    /**
+     * Same as {@link #nextToken()}, but returns the token's interned String (see {@link TokenTable}). Only for
+     *   tokens that repeat across requests: function and cookie names.
+     * @return a String of at least one alphanumeric character.
+     * @throws ValidationException if the next character is not alphanumeric
+     * @throws EOFException if no data remains
+     */
+    String nextInternedToken() throws ValidationException, EOFException {
+        int start = pos;
+        skipToken();
+        return TokenTable.intern(buf, start, pos);
+    }
+
+    /**
+     * Consumes the next token without building a String. Same checks as {@link #nextToken()}.
+     * @throws ValidationException if the next character is not alphanumeric
+     * @throws EOFException if no data remains
+     */
+    void skipToken() throws ValidationException, EOFException {
+        if (pos >= limit) {
+            throw new EOFException("Couldn't read token from input stream");
+        }
+        int start = pos;
+        while (pos < limit && Util.isAlnum(buf.get(pos))) {
+            ++pos;
+        }
+        if (pos == start) {
+            throw new ValidationException("Expected token, got non-token String",
+                    string(pos, Math.min(limit, pos + BAD_TOKEN_PREVIEW)));
+        }
+    }
+
+    /**
+     * Gets the absolute index of the next byte to read.
+     * @return current position
+     */
+    int position() {
+        return pos;
+    }
+
+    /**
+     * Copies the bytes in the given absolute range.
+     * @param start index of first byte
+     * @param end index after last byte
+     * @return copy of the bytes
+     */
+    byte[] bytes(int start, int end) {
+        var bytes = new byte[end - start];
+        buf.get(start, bytes);
+        return bytes;
+    }
+
+    /**
+     * Indicates whether a token can be consumed from the current position.
+     * @return true if a token can be read; false otherwise
+     */
+    boolean hasNextToken() {
+        return pos < limit && Util.isAlnum(buf.get(pos));
+    }
+
+    /**
+     * Indicates whether the next bytes exactly match the given (ASCII) String.
+     * The position is unchanged.
+     * @param str the String to search for
+     * @return true if the next bytes match str; false otherwise
+     */
+    boolean nextStringMatches(String str) {
+        return limit - pos >= str.length() && regionMatches(pos, str);
+    }
+
+    /**
+     * Asserts that the next bytes match str exactly, and consumes them.
+     * Same semantics as {@link Parsing#expectNextString(MessageInput, String)}.
+     * @param str the String that should come next
+     * @throws ValidationException if the next bytes do not match str
+     * @throws EOFException if fewer bytes than the length of str remain
+     */
+    void expectNextString(String str) throws ValidationException, EOFException {
+        int len = str.length();
+        if (limit - pos < len) {
+            pos = limit;
+            throw new EOFException("Premature EOS when expecting string \"" + str + "\"");
+        }
+        int start = pos;
+        pos += len;
+        if (!regionMatches(start, str)) {
+            throw new ValidationException("Expected to get \"" + str + "\"", string(start, pos));
+        }
+    }
+
+    /**
+     * Reads everything up to (not including) the next CRLF, or to the end of the data if there is none.
+     * @return a (possibly-empty) String of everything before the CRLF
+     */
+    String readToNewline() {
+        int start = pos;
+        while (pos < limit) {
+            if (buf.get(pos) == '\r' && pos + 1 < limit && buf.get(pos + 1) == '\n')
+                break;
+            ++pos;
+        }
+        return string(start, pos);
+    }
+
+    // Whether the bytes starting at the given absolute index match str
+    private boolean regionMatches(int start, String str) {
+        for (int i = 0; i < str.length(); ++i) {
+            if (buf.get(start + i) != (byte) str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Decodes the bytes in [start, end) as ASCII
+    private String string(int start, int end) {
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + start, end - start, SPRT_CHARSET);
+        }
+        var bytes = new byte[end - start];
+        buf.get(start, bytes);
+        return new String(bytes, SPRT_CHARSET);
+    }
+}
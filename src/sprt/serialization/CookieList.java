@@ -8,26 +8,52 @@
 
 package sprt.serialization;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Objects;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import static sprt.serialization.Message.NEWLINE;
+import static sprt.serialization.Message.SPRT_CHARSET;
 import static sprt.serialization.Util.checkNull;
 
-/** Set of cookies (name/value pairs) */
+/**
+ * Set of cookies (name/value pairs)
+ *
+ * Cookies are kept in two parallel arrays sorted by name, so lookups are binary searches, encoding is a
+ *   linear walk, and adding another list is a merge. Copies share the arrays until one of them is modified
+ *   (copy-on-write), so copying a list is O(1).
+ *
+ * A list decoded from bytes starts out holding just its validated, encoded cookie lines; they are only
+ *   split into names and values the first time something looks inside the list. Until then, copying,
+ *   adding an empty list, and encoding (when the lines are already in order) work on the raw bytes.
+ */
 public class CookieList {
-    /** key/value pairs contained by this list */
-    private final Map<String, String> cookies;
+    private static final String[] EMPTY = new String[0];
+    private static final int MIN_CAPACITY = 4;
+
+    /** Cookie names in ascending order. Only the first size entries are used. */
+    private String[] names = EMPTY;
+    /** values[i] is the value of the cookie named names[i] */
+    private String[] values = EMPTY;
+    /** Number of cookies */
+    private int size = 0;
+    /** Whether the arrays may be used by another list or a names view, so must be copied before modifying */
+    private boolean shared = false;
+    /** Validated, encoded cookie lines (without the final CRLF) not yet parsed into names/values, or null */
+    private byte[] raw = null;
+    /** Whether raw is in ascending order with no repeated names, i.e. exactly what encode would write */
+    private boolean rawCanonical = false;
 
     /**
      * Creates a new, empty cookie list
      */
     public CookieList() {
-        cookies = new HashMap<>();
     }
 
     /**
@@ -45,18 +71,52 @@ public class CookieList {
             String key = in.nextToken();
             Parsing.expectNextString(in, "=");
             String val = in.nextToken();
-            add(key, val);
+            put(key, val); // already validated by nextToken
             Parsing.expectNextString(in, NEWLINE);
         }
         Parsing.expectNextString(in, NEWLINE);
     }
 
+    /**
+     * Same as {@link #CookieList(MessageInput)}, but reading bytes directly.
+     * @param in input from which to deserialize the name/value list
+     * @throws ValidationException if validation problem such as illegal name and/or value, etc.
+     * @throws EOFException if the input ends early
+     */
+    CookieList(ByteMessageInput in) throws ValidationException, EOFException {
+        this();
+        // Only validate here; the lines are parsed on first use
+        int start = in.position();
+        while (in.hasNextToken()) {
+            in.skipToken();
+            in.expectNextString("=");
+            in.skipToken();
+            in.expectNextString(NEWLINE);
+        }
+        int end = in.position();
+        in.expectNextString(NEWLINE);
+        if (end > start)
+            setRaw(in.bytes(start, end));
+    }
+
+    /**
+     * Creates a list from encoded cookie lines that have already been validated.
+     * @param raw cookie lines (name=value CRLF, repeated), without the final CRLF. Must not be modified afterwards.
+     * @return new cookie list
+     */
+    static CookieList fromValidatedBytes(byte[] raw) {
+        var list = new CookieList();
+        if (raw.length > 0)
+            list.setRaw(raw);
+        return list;
+    }
+
     /**
      * Creates a copy of an existing CookieList
      * @param other list to copy
      */
     public CookieList(CookieList other) {
-        cookies = new HashMap<>(other.cookies);
+        shareFrom(other);
     }
 
     /**
@@ -69,13 +129,9 @@ public class CookieList {
      */
     public void encode(MessageOutput out) throws IOException {
         checkNull(out, "out");
-        // Lambdas don't let you use functions that throw exceptions, so I can't use .forEach.
-        // So I have to waste time+space with .toList(). Suggestions are appreciated.
-        var ascendingCookies = cookies.entrySet().stream()
-                .sorted(Map.Entry.comparingByKey())
-                .collect(Collectors.toList());
-        for (var c : ascendingCookies) {
-            writeCookie(out, c);
+        materialize();
+        for (int i = 0; i < size; ++i) {
+            writeCookie(out, Map.entry(names[i], values[i]));
         }
         out.write(NEWLINE);
         out.flush();
@@ -85,6 +141,50 @@ public class CookieList {
         out.writeLine(entry.getKey(), "=", entry.getValue());
     }
 
+    /**
+     * Gets the exact number of bytes the encoded name-value list takes up.
+     * @return encoded length, in bytes
+     */
+    int encodedLength() {
+        if (raw != null && rawCanonical)
+            return raw.length + NEWLINE.length();
+        materialize();
+        int len = NEWLINE.length();
+        for (int i = 0; i < size; ++i) {
+            len += names[i].length() + 1 + values[i].length() + NEWLINE.length();
+        }
+        return len;
+    }
+
+    /**
+     * Gets a read-only view of the encoded cookie lines (without the final CRLF), if the list holds them
+     *   already in the order encode would write them.
+     * @return view of the lines, or null if they'd have to be encoded
+     */
+    ByteBuffer encodedLines() {
+        if (raw == null || !rawCanonical)
+            return null;
+        return ByteBuffer.wrap(raw).asReadOnlyBuffer();
+    }
+
+    /**
+     * Same as {@link #encode(MessageOutput)}, but writing ASCII bytes directly into a buffer.
+     * The buffer must have at least {@link #encodedLength()} bytes remaining.
+     * @param out buffer to write to
+     */
+    void encode(ByteBuffer out) {
+        if (raw != null && rawCanonical) {
+            out.put(raw);
+        }
+        else {
+            materialize();
+            for (int i = 0; i < size; ++i) {
+                Message.putAscii(out, names[i], "=", values[i], NEWLINE);
+            }
+        }
+        Message.putAscii(out, NEWLINE);
+    }
+
     /**
      * Adds the new name/value pair to the list of cookies.
      * If the name already exists, the new value replaces the old value
@@ -101,10 +201,31 @@ public class CookieList {
             throw new ValidationException("name must be a token", name);
         if (!Parsing.isToken(value))
             throw new ValidationException("value must be a token", value);
-        cookies.put(name, value);
+        materialize();
+        put(name, value);
         return this;
     }
 
+    // Adds or replaces a cookie without validating it
+    private void put(String name, String value) {
+        int idx = Arrays.binarySearch(names, 0, size, name);
+        if (idx >= 0) {
+            if (!values[idx].equals(value)) {
+                makeWritable(size);
+                values[idx] = value;
+            }
+            return;
+        }
+        // Insert at insertion point, shifting later cookies back
+        idx = -(idx + 1);
+        makeWritable(size + 1);
+        System.arraycopy(names, idx, names, idx + 1, size - idx);
+        System.arraycopy(values, idx, values, idx + 1, size - idx);
+        names[idx] = name;
+        values[idx] = value;
+        ++size;
+    }
+
     /**
      * Adds all cookies from another cookie list
      * @param other other cookie list
@@ -113,22 +234,58 @@ public class CookieList {
      */
     public CookieList addAll(CookieList other) {
         checkNull(other, "other");
-        try {
-            for (var key : other.getNames())
-                this.add(key, other.getValue(key));
+        if (other.isEmpty() || other == this)
+            return this;
+        if (isEmpty()) {
+            shareFrom(other);
+            return this;
         }
-        catch (ValidationException e) {
-            throw new IllegalStateException("Current cookie list is invalid", e);
+        materialize();
+        other.materialize();
+
+        // Merge the two sorted lists; other's value wins when both have a name
+        var newNames = new String[size + other.size];
+        var newValues = new String[newNames.length];
+        int i = 0, j = 0, n = 0;
+        while (i < size && j < other.size) {
+            int cmp = names[i].compareTo(other.names[j]);
+            if (cmp < 0) {
+                newNames[n] = names[i];
+                newValues[n++] = values[i++];
+            }
+            else {
+                newNames[n] = other.names[j];
+                newValues[n++] = other.values[j++];
+                if (cmp == 0)
+                    ++i;
+            }
+        }
+        for (; i < size; ++i, ++n) {
+            newNames[n] = names[i];
+            newValues[n] = values[i];
+        }
+        for (; j < other.size; ++j, ++n) {
+            newNames[n] = other.names[j];
+            newValues[n] = other.values[j];
         }
+        names = newNames;
+        values = newValues;
+        size = n;
+        shared = false;
         return this;
     }
 
     /**
      * Gets the set of names
+     *
+     * The set is an unmodifiable view that iterates in ascending order. Later changes to this list are not
+     *   reflected in it.
      * @return Set (potentially empty) of names (strings) for this list
      */
     public Set<String> getNames() {
-        return Set.copyOf(cookies.keySet());
+        materialize();
+        shared = true;
+        return new NameSet(names, size);
     }
 
     /**
@@ -139,7 +296,9 @@ public class CookieList {
      */
     public String getValue(String name) {
         checkNull(name, "name");
-        return cookies.get(name);
+        materialize();
+        int idx = Arrays.binarySearch(names, 0, size, name);
+        return idx >= 0 ? values[idx] : null;
     }
 
     @Override
@@ -147,12 +306,21 @@ public class CookieList {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         CookieList that = (CookieList) o;
-        return cookies.equals(that.cookies);
+        materialize();
+        that.materialize();
+        return Arrays.equals(names, 0, size, that.names, 0, that.size)
+                && Arrays.equals(values, 0, size, that.values, 0, that.size);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(cookies);
+        materialize();
+        int hash = 1;
+        for (int i = 0; i < size; ++i) {
+            hash = 31 * hash + names[i].hashCode();
+            hash = 31 * hash + values[i].hashCode();
+        }
+        return hash;
     }
 
     /**
@@ -164,10 +332,127 @@ public class CookieList {
      */
     @Override
     public String toString() {
-        return "Cookies=[" + cookies.entrySet().stream()
-                .sorted(Map.Entry.comparingByKey())
-                .map(entry -> entry.getKey() + "=" + entry.getValue())
-                .collect(Collectors.joining(","))
-            + "]";
+        materialize();
+        var str = new StringBuilder("Cookies=[");
+        for (int i = 0; i < size; ++i) {
+            if (i > 0)
+                str.append(',');
+            str.append(names[i]).append('=').append(values[i]);
+        }
+        return str.append(']').toString();
+    }
+
+    // Makes this list use the same arrays as other
+    private void shareFrom(CookieList other) {
+        other.shared = true;
+        names = other.names;
+        values = other.values;
+        size = other.size;
+        shared = true;
+        raw = other.raw;
+        rawCanonical = other.rawCanonical;
+    }
+
+    // Whether the list has no cookies, without parsing raw
+    private boolean isEmpty() {
+        return raw == null && size == 0;
+    }
+
+    // Keeps the given encoded cookie lines to be parsed later
+    private void setRaw(byte[] bytes) {
+        raw = bytes;
+        rawCanonical = isCanonical(bytes);
+    }
+
+    // Parses raw into names/values, if not done yet
+    private void materialize() {
+        if (raw == null)
+            return;
+        var bytes = raw;
+        raw = null;
+        int pos = 0;
+        while (pos < bytes.length) {
+            int eq = indexOf(bytes, (byte) '=', pos);
+            int cr = indexOf(bytes, (byte) '\r', eq);
+            // Names repeat across clients; values (such as a client's name) mostly don't
+            var name = TokenTable.intern(bytes, pos, eq - pos);
+            var value = new String(bytes, eq + 1, cr - eq - 1, SPRT_CHARSET);
+            put(name, value);
+            pos = cr + NEWLINE.length();
+        }
+    }
+
+    // Whether the names in the encoded cookie lines are strictly ascending
+    private static boolean isCanonical(byte[] bytes) {
+        int prevStart = 0, prevEnd = -1;
+        int pos = 0;
+        while (pos < bytes.length) {
+            int eq = indexOf(bytes, (byte) '=', pos);
+            // Names are ASCII, so comparing bytes orders them the same as String.compareTo
+            if (prevEnd >= 0 && Arrays.compare(bytes, prevStart, prevEnd, bytes, pos, eq) >= 0)
+                return false;
+            prevStart = pos;
+            prevEnd = eq;
+            pos = indexOf(bytes, (byte) '\r', eq) + NEWLINE.length();
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from) {
+        int i = from;
+        while (bytes[i] != b)
+            ++i;
+        return i;
+    }
+
+    // Makes sure the arrays are owned by this list and can hold at least minCapacity cookies
+    private void makeWritable(int minCapacity) {
+        if (!shared && names.length >= minCapacity)
+            return;
+        int capacity = names.length >= minCapacity ? names.length
+                : Math.max(MIN_CAPACITY, Math.max(minCapacity, names.length * 2));
+        names = Arrays.copyOf(names, capacity);
+        values = Arrays.copyOf(values, capacity);
+        shared = false;
+    }
+
+    /** Unmodifiable, ascending view of the first size entries of a (shared) names array */
+    private static final class NameSet extends AbstractSet<String> {
+        private final String[] names;
+        private final int size;
+
+        NameSet(String[] names, int size) {
+            this.names = names;
+            this.size = size;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public String next() {
+                    if (next >= size)
+                        throw new NoSuchElementException();
+                    return names[next++];
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof String name && Arrays.binarySearch(names, 0, size, name) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
     }
 }
@@ -8,10 +8,15 @@
 
 package sprt.serialization;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Objects;
+import java.util.function.IntFunction;
 
 import static sprt.serialization.Util.checkNull;
 
@@ -23,8 +28,12 @@ public abstract class Message {
     public static final String NEWLINE = "\r\n";
     /** The charset used in the SPRT protocol. */
     public static final Charset SPRT_CHARSET = StandardCharsets.US_ASCII;
+    /** Cookie lines at least this long are sent as their own segment by {@link #encodeSegments(IntFunction)} */
+    public static final int MIN_COOKIE_SEGMENT = 256;
     /** All SPRT 1.0 messages start with this */
     public static final String SPRT_VERSION_HEADER = "SPRT/1.0 ";
+    // NEWLINE as bytes, for segments; never written to
+    private static final byte[] NEWLINE_BYTES = NEWLINE.getBytes(SPRT_CHARSET);
 
     /** The name of the function to run, e.g. "Poll" */
     private String function;
@@ -43,9 +52,6 @@ public abstract class Message {
     public Message(String function, CookieList cookieList)
             throws ValidationException
     {
-        checkNull(function, "function");
-        if (!Parsing.isToken(function))
-            throw new ValidationException("Invalid token", function);
         setFunction(function);
         setCookieList(cookieList);
     }
@@ -66,6 +72,21 @@ public abstract class Message {
         return MessageType.fromToken(typeTok);
     }
 
+    // Same as consumeHeader(MessageInput), but reading bytes directly.
+    private static MessageType consumeHeader(ByteMessageInput in) throws ValidationException, EOFException {
+        in.expectNextString(SPRT_VERSION_HEADER);
+        String typeTok = in.nextToken();
+        in.expectNextString(" ");
+        return MessageType.fromToken(typeTok);
+    }
+
+    // Throws ValidationException if the decoded type isn't the expected one (null means any type is ok)
+    private static void checkType(MessageType type, MessageType expectedType) throws ValidationException {
+        if (expectedType != null && !type.equals(expectedType)) {
+            throw new ValidationException("Expected type " + expectedType + ", got " + type, type.token);
+        }
+    }
+
     /**
      * Creates a new message by deserializing from the given input
      * according to the specified serialization.
@@ -93,15 +114,56 @@ public abstract class Message {
      */
     public static Message decodeType(MessageInput in, MessageType expectedType) throws ValidationException, IOException {
         MessageType type = consumeHeader(in);
-        if (expectedType != null && !type.equals(expectedType)) {
-            throw new ValidationException("Expected type " + expectedType + ", got " + type, type.token);
-        }
+        checkType(type, expectedType);
         return switch (type) {
             case Response -> new Response(in);
             case Request -> new Request(in);
         };
     }
 
+    /**
+     * Creates a new message by deserializing the ASCII bytes of the given buffer, starting at its position.
+     * This skips the Reader machinery of {@link MessageInput}, but validates exactly the same way.
+     *
+     * The buffer's position is advanced past the bytes consumed, so several messages can be decoded
+     * back to back from one buffer.
+     * @param buffer bytes to decode
+     * @return new message
+     * @throws ValidationException if validation fails
+     * @throws EOFException if the buffer ends before the message does
+     * @throws NullPointerException if buffer is null
+     */
+    public static Message decode(ByteBuffer buffer) throws ValidationException, EOFException {
+        return decodeType(buffer, null);
+    }
+
+    /**
+     * Same as {@link #decode(ByteBuffer)}, but also checks that the received message is of the given type.
+     * If the expected type is null, any type is accepted.
+     * @param buffer bytes to decode
+     * @param expectedType Type that should be received
+     * @return new message
+     * @throws ValidationException if wrong message type or validation fails
+     * @throws EOFException if the buffer ends before the message does
+     * @throws NullPointerException if buffer is null
+     */
+    public static Message decodeType(ByteBuffer buffer, MessageType expectedType)
+            throws ValidationException, EOFException
+    {
+        var in = new ByteMessageInput(checkNull(buffer, "buffer"));
+        try {
+            MessageType type = consumeHeader(in);
+            checkType(type, expectedType);
+            return switch (type) {
+                case Response -> new Response(in);
+                case Request -> new Request(in);
+            };
+        }
+        finally {
+            in.commit();
+        }
+    }
+
     /**
      * Encode the entire message
      * @param out serialization output sink
@@ -119,6 +181,76 @@ public abstract class Message {
 
     protected abstract void doEncode(MessageOutput out) throws IOException;
 
+    /**
+     * Gets the exact number of bytes {@link #encode(ByteBuffer)} (or {@link #encode(MessageOutput)}) writes.
+     * @return encoded length of the entire message, in bytes
+     */
+    public int encodedLength() {
+        return SPRT_VERSION_HEADER.length() + doEncodedLength() + cookieList.encodedLength();
+    }
+
+    /**
+     * Encode the entire message as ASCII bytes directly into the given buffer, starting at its position.
+     * Nothing is written if the message doesn't fit.
+     * @param out buffer to write to. Its position is advanced by {@link #encodedLength()}.
+     * @throws BufferOverflowException if out has less than {@link #encodedLength()} bytes remaining
+     * @throws ReadOnlyBufferException if out is read-only
+     * @throws NullPointerException if out is null
+     */
+    public void encode(ByteBuffer out) {
+        checkNull(out, "out");
+        if (out.remaining() < encodedLength())
+            throw new BufferOverflowException();
+        putAscii(out, SPRT_VERSION_HEADER);
+        doEncode(out);
+        cookieList.encode(out);
+    }
+
+    /**
+     * Encodes the entire message as a sequence of buffers that, written in order (e.g., with a gathering
+     *   write), make up the same bytes as {@link #encode(ByteBuffer)}.
+     *
+     * The first buffer comes from the given function and holds the start of the message. Cookie lines the
+     *   message already holds in encoded form, if there are at least {@link #MIN_COOKIE_SEGMENT} bytes of
+     *   them, aren't copied; they follow as a read-only view, then the final CRLF. Otherwise, the first buffer
+     *   holds the whole message.
+     * @param headBuffer gets a buffer with at least the given number of bytes remaining, to encode into
+     * @return buffers ready to be written (flipped), in order
+     * @throws NullPointerException if headBuffer is null
+     */
+    public ByteBuffer[] encodeSegments(IntFunction<ByteBuffer> headBuffer) {
+        checkNull(headBuffer, "headBuffer");
+        var lines = cookieList.encodedLines();
+        if (lines == null || lines.remaining() < MIN_COOKIE_SEGMENT) {
+            var whole = headBuffer.apply(encodedLength());
+            encode(whole);
+            return new ByteBuffer[] { whole.flip() };
+        }
+        var head = headBuffer.apply(SPRT_VERSION_HEADER.length() + doEncodedLength());
+        putAscii(head, SPRT_VERSION_HEADER);
+        doEncode(head);
+        return new ByteBuffer[] { head.flip(), lines, ByteBuffer.wrap(NEWLINE_BYTES).asReadOnlyBuffer() };
+    }
+
+    // Length of the portion of the message written by doEncode
+    protected abstract int doEncodedLength();
+
+    // Same as doEncode(MessageOutput), but writing ASCII bytes. The buffer is known to have enough room.
+    protected abstract void doEncode(ByteBuffer out);
+
+    /**
+     * Writes each character of each String as one ASCII byte.
+     * @param out buffer to write to
+     * @param strings Strings containing only ASCII characters
+     */
+    static void putAscii(ByteBuffer out, String... strings) {
+        for (var s : strings) {
+            for (int i = 0; i < s.length(); ++i) {
+                out.put((byte) s.charAt(i));
+            }
+        }
+    }
+
     /**
      * Gets the function
      * @return function
@@ -127,6 +259,11 @@ public abstract class Message {
         return function;
     }
 
+    // Sets the function without validating it. Only for tokens the decoder has already checked.
+    void setTrustedFunction(String function) {
+        this.function = function;
+    }
+
     /**
      * Sets the function
      * @param function new function
@@ -8,6 +8,7 @@
 
 package sprt.serialization;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
@@ -15,29 +16,108 @@ import static sprt.serialization.Util.checkNull;
 
 /**
  * Buffers a message until a delimiter is found.
+ *
+ * Buffered bytes live in one array between a read index and a write index. Returning a frame just
+ *   advances the read index, so there is no per-frame shifting; the leftover partial frame is moved to
+ *   the front only when the array runs out of room at the back.
  */
 public class NIODeframer {
     /**
      * Delimiter to end a message
      */
     public static final String DELIMITER = "\r\n\r\n";
+    /**
+     * Default maximum size of a frame, including the delimiter
+     */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024;
     private static final byte[] DELIM_BYTES = DELIMITER.getBytes(Message.SPRT_CHARSET);
+    private static final int INITIAL_SIZE = 1024;
+    // Horspool skip table: how far the delimiter can move forward given the byte under its last position
+    private static final byte[] SKIP = new byte[256];
+    static {
+        Arrays.fill(SKIP, (byte) DELIM_BYTES.length);
+        for (int i = 0; i < DELIM_BYTES.length - 1; ++i) {
+            SKIP[DELIM_BYTES[i] & 0xFF] = (byte) (DELIM_BYTES.length - 1 - i);
+        }
+    }
+
+    // Max bytes allowed in one frame
+    private final int maxFrameSize;
     // Growable buffer to hold message
-    private byte[] data = new byte[1024];
+    private byte[] data = new byte[INITIAL_SIZE];
+    // Idx in data of the first byte not yet returned in a frame
+    private int readPos = 0;
     // Idx in data where the next byte should be put.
-    private int dataPos = 0;
+    private int writePos = 0;
+    // Idx in data before which the delimiter is known not to start
+    private int searchPos = 0;
+
+    /**
+     * Creates a deframer that allows frames up to {@link #DEFAULT_MAX_FRAME_SIZE} bytes.
+     */
+    public NIODeframer() {
+        this(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Creates a deframer that allows frames up to the given size.
+     * @param maxFrameSize max bytes in a frame, including the delimiter
+     * @throws IllegalArgumentException if maxFrameSize is less than the delimiter length
+     */
+    public NIODeframer(int maxFrameSize) {
+        if (maxFrameSize < DELIM_BYTES.length)
+            throw new IllegalArgumentException("maxFrameSize must be at least " + DELIM_BYTES.length);
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Appends the given partial message to the back of the buffer and, if possible, removes
+     * a full delimited message from the front of the buffer.
+     *
+     * The bytes are copied straight out of the given buffer, and a full message is returned as a
+     *   read-only view over this deframer's own storage rather than as a copy. The view is only valid
+     *   until the next call to any getFrame or getMessage method.
+     *
+     * If more than the max frame size is buffered without a delimiter, everything buffered is
+     *   discarded and BufferOverflowException is thrown.
+     * @param buffer (possibly) partial message to buffer. All of its remaining bytes are consumed.
+     * @return View of the full message (including delimiter) if one exists; else, null
+     * @throws NullPointerException If buffer is null
+     * @throws BufferOverflowException If a frame is longer than the max frame size
+     */
+    public ByteBuffer getFrame(ByteBuffer buffer) throws NullPointerException, BufferOverflowException {
+        checkNull(buffer, "buffer");
+        int len = buffer.remaining();
+        makeRoom(len);
+        buffer.get(data, writePos, len);
+        writePos += len;
+
+        int delimiterIdx = findDelimiter(searchPos);
+        if (delimiterIdx == -1) {
+            // Delimiter could still start in the last few bytes once more data arrives
+            searchPos = Math.max(readPos, writePos - DELIM_BYTES.length + 1);
+            checkFrameSize(writePos - readPos);
+            return null;
+        }
+        // Message is from readPos to delimiterIdx + delimiter length, exclusive.
+        int frameStart = readPos;
+        int frameLen = delimiterIdx + DELIM_BYTES.length - frameStart;
+        checkFrameSize(frameLen);
+        readPos += frameLen;
+        searchPos = readPos;
+        return ByteBuffer.wrap(data, frameStart, frameLen).slice().asReadOnlyBuffer();
+    }
 
     /**
      * See {@link #getMessage(byte[])}.
      * @param buffer (possibly) partial message to buffer
      * @return Full message (including delimiter) if one exists
      * @throws NullPointerException If buffer is null
+     * @throws BufferOverflowException If a frame is longer than the max frame size
      */
-    public byte[] getMessage(ByteBuffer buffer) throws NullPointerException {
+    public byte[] getMessage(ByteBuffer buffer) throws NullPointerException, BufferOverflowException {
         checkNull(buffer, "buffer");
-        var buf = new byte[buffer.remaining()];
-        buffer.get(buf);
-        return getMessage(buf);
+        return copyOf(getFrame(buffer));
     }
 
     /**
@@ -49,29 +129,11 @@ public class NIODeframer {
      * @param message (possibly) partial message to buffer
      * @return Full message (including delimiter) if one exists
      * @throws NullPointerException If message is null
+     * @throws BufferOverflowException If a frame is longer than the max frame size
      */
-    public byte[] getMessage(byte[] message) throws NullPointerException {
+    public byte[] getMessage(byte[] message) throws NullPointerException, BufferOverflowException {
         checkNull(message, "message");
-        if (dataPos + message.length >= data.length)
-            growBuffer();
-        System.arraycopy(message, 0, this.data, dataPos, message.length);
-        int oldDataPos = dataPos;
-        dataPos += message.length;
-
-        int delimiterIdx = findDelimiter(Math.max(0, oldDataPos - DELIM_BYTES.length));
-
-        if (delimiterIdx != -1) {
-            // Message is from start of data to delimiterIdx + delimiter length, exclusive.
-            var output = new byte[delimiterIdx + DELIM_BYTES.length];
-            System.arraycopy(data, 0, output, 0, delimiterIdx + DELIM_BYTES.length);
-            // Truncate data buffer to whatever is after the delimiter
-            int remainingDataIdx = delimiterIdx + DELIM_BYTES.length;
-            int lengthAfterDelimiter = dataPos - remainingDataIdx;
-            System.arraycopy(data, delimiterIdx + DELIM_BYTES.length, data, 0, lengthAfterDelimiter);
-            dataPos = lengthAfterDelimiter;
-            return output;
-        }
-        return null;
+        return copyOf(getFrame(ByteBuffer.wrap(message)));
     }
 
     /**
@@ -79,25 +141,69 @@ public class NIODeframer {
      * @return data size
      */
     public int dataSize() {
-        return dataPos;
+        return writePos - readPos;
     }
 
-    // Finds index of delimiter, searching from given start, or -1 if not found
+    // Finds index of delimiter, searching from given start, or -1 if not found (Horspool search)
     private int findDelimiter(int searchStart) {
-        for (int start = searchStart; start <= dataPos - DELIM_BYTES.length; ++start) {
-            if (-1 == Arrays.mismatch(data, start, start + DELIM_BYTES.length, DELIM_BYTES, 0, DELIM_BYTES.length))
-            {
+        final int last = DELIM_BYTES.length - 1;
+        int start = searchStart;
+        while (start + last < writePos) {
+            byte b = data[start + last];
+            if (b == DELIM_BYTES[last]
+                    && data[start] == DELIM_BYTES[0]
+                    && data[start + 1] == DELIM_BYTES[1]
+                    && data[start + 2] == DELIM_BYTES[2]) {
                 return start;
             }
+            start += SKIP[b & 0xFF];
         }
         return -1;
     }
 
-    // Doubles buffer size
-    private void growBuffer() {
-        var newData = new byte[data.length * 2];
-        System.arraycopy(data, 0, newData, 0, data.length);
-        data = newData;
+    // Makes sure len more bytes fit after writePos, compacting or growing as needed
+    private void makeRoom(int len) {
+        if (readPos == writePos) {
+            // Nothing buffered, so start over at the front for free
+            readPos = writePos = searchPos = 0;
+        }
+        if (writePos + len <= data.length)
+            return;
+
+        int buffered = writePos - readPos;
+        if (buffered + len > data.length) {
+            int newLength = data.length;
+            while (newLength < buffered + len)
+                newLength *= 2;
+            var newData = new byte[newLength];
+            System.arraycopy(data, readPos, newData, 0, buffered);
+            data = newData;
+        }
+        else {
+            System.arraycopy(data, readPos, data, 0, buffered);
+        }
+        searchPos -= readPos;
+        readPos = 0;
+        writePos = buffered;
+    }
+
+    // Discards everything and throws if a frame is too big
+    private void checkFrameSize(int frameLen) {
+        if (frameLen > maxFrameSize) {
+            readPos = writePos = searchPos = 0;
+            if (data.length > INITIAL_SIZE)
+                data = new byte[INITIAL_SIZE];
+            throw new BufferOverflowException();
+        }
+    }
+
+    // Copies the remaining bytes of a frame, or returns null if no frame
+    private static byte[] copyOf(ByteBuffer frame) {
+        if (frame == null)
+            return null;
+        var output = new byte[frame.remaining()];
+        frame.get(output);
+        return output;
     }
 
 }
@@ -20,7 +20,28 @@ public class Parsing {
      * @return true if str is a token; else, false.
      */
     public static boolean isToken(String str) {
-        return str != null && str.matches("[A-Za-z0-9]+");
+        if (str == null || str.isEmpty())
+            return false;
+        for (int i = 0; i < str.length(); ++i) {
+            if (!Util.isAlnum(str.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Determines whether the given String contains only printable characters (see {@link Util#isPrintable(char)}).
+     * @param str the String to test.
+     * @return true if str is non-null and printable; else, false.
+     */
+    public static boolean isPrintable(String str) {
+        if (str == null)
+            return false;
+        for (int i = 0; i < str.length(); ++i) {
+            if (!Util.isPrintable(str.charAt(i)))
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -8,17 +8,124 @@
 
 package sprt.serialization;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static sprt.serialization.Util.checkNull;
 import static sprt.serialization.Util.deepCheckNull;
 
-/** Represents a request and provides serialization/deserialization */
+/**
+ * Represents a request and provides serialization/deserialization.
+ *
+ * A request may carry further steps to run after its own function, each as if it were the next request of the
+ *   session. Such a batch is sent with the BATCH command, and each further step on its own line after the
+ *   first, before the cookies:
+ * <pre>
+ * SPRT/1.0 Q BATCH Poll
+ * RUN NameStep Bob Smith
+ * RUN FoodStep Mexican
+ * FName=Bob
+ *
+ * </pre>
+ */
 public class Request extends Message {
+    /** Command for a request with one step */
+    static final String RUN = "RUN";
+    /** Command for a request with further steps */
+    static final String BATCH = "BATCH";
+    /** Start of the line for each further step of a batch */
+    static final String STEP_PREFIX = RUN + " ";
+    private static final Step[] NO_STEPS = new Step[0];
+
     /** Values for the parameters associated with the function for this message */
     private String[] params;
+    /** Steps to run after this request's own function */
+    private Step[] nextSteps = NO_STEPS;
+
+    /**
+     * One function to run, with its parameters, in a batch request
+     */
+    public static final class Step {
+        private final String function;
+        private final String[] params;
+
+        /**
+         * Creates a step.
+         * @param function name of function to run
+         * @param params parameters for function
+         * @throws ValidationException if function or a param is not a token
+         * @throws NullPointerException if function, params, or an element of params is null
+         */
+        public Step(String function, String[] params) throws ValidationException {
+            checkNull(function, "function");
+            deepCheckNull(params, "params");
+            if (!Parsing.isToken(function))
+                throw new ValidationException("Invalid token", function);
+            for (String p : params) {
+                if (!Parsing.isToken(p))
+                    throw new ValidationException("Invalid token", p);
+            }
+            this.function = function;
+            this.params = Arrays.copyOf(params, params.length);
+        }
+
+        // Creates a step from [function, params...] tokens the decoder has already validated
+        private Step(String[] tokens) {
+            this.function = tokens[0];
+            this.params = Arrays.copyOfRange(tokens, 1, tokens.length);
+        }
+
+        /**
+         * Gets the function
+         * @return function
+         */
+        public String getFunction() {
+            return function;
+        }
+
+        /**
+         * Returns the parameter list
+         * @return parameter list
+         */
+        public String[] getParams() {
+            return Arrays.copyOf(params, params.length);
+        }
+
+        // Length of the step's line, without STEP_PREFIX
+        private int encodedLength() {
+            int len = function.length() + NEWLINE.length();
+            for (String param : params) {
+                len += 1 + param.length();
+            }
+            return len;
+        }
+
+        /**
+         * Returns a String representation a form like: "fn p1 p2"
+         * @return String representation of the step
+         */
+        @Override
+        public String toString() {
+            return params.length == 0 ? function : function + " " + String.join(" ", params);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Step step = (Step) o;
+            return function.equals(step.function) && Arrays.equals(params, step.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * function.hashCode() + Arrays.hashCode(params);
+        }
+    }
 
     @Override
     protected MessageType getType() {
@@ -39,6 +146,28 @@ public class Request extends Message {
         setParams(params);
     }
 
+    // Creates a request with no fields set; used by fromValidated
+    private Request() {
+    }
+
+    /**
+     * Creates a request from parts the decoder has already validated, without checking or copying them again.
+     * @param function function token
+     * @param params parameter tokens. The new request takes ownership of the array.
+     * @param nextSteps further steps, each as [function, params...]. May be empty.
+     * @param cookieList cookies
+     * @return new request
+     */
+    static Request fromValidated(String function, String[] params, List<String[]> nextSteps,
+                                 CookieList cookieList) {
+        var request = new Request();
+        request.setTrustedFunction(function);
+        request.params = params;
+        request.nextSteps = toSteps(nextSteps);
+        request.setCookieList(cookieList);
+        return request;
+    }
+
     /**
      * Creates a request by deserializing the portion of an input stream AFTER the "SPRT/1.0 Q " header.
      * @param in partially-consumed input
@@ -49,30 +178,138 @@ public class Request extends Message {
         checkNull(in, "in");
 
         String command = in.nextToken();
-        if (!"RUN".equals(command))
+        if (!RUN.equals(command) && !BATCH.equals(command))
             throw new ValidationException("Invalid command", command);
         Parsing.expectNextString(in, " ");
-        String function = in.nextToken();
-        var params = new ArrayList<String>();
+        String[] first = readStep(in);
+        var steps = new ArrayList<String[]>();
+        if (BATCH.equals(command)) {
+            // A batch has at least one step after the first
+            do {
+                Parsing.expectNextString(in, STEP_PREFIX);
+                steps.add(readStep(in));
+            }
+            while (in.nextStringMatches(STEP_PREFIX));
+        }
+        var cookies = new CookieList(in);
+
+        // Tokens were validated as they were read
+        setTrustedFunction(first[0]);
+        this.params = Arrays.copyOfRange(first, 1, first.length);
+        this.nextSteps = toSteps(steps);
+        setCookieList(cookies);
+    }
+
+    /**
+     * Same as {@link #Request(MessageInput)}, but reading bytes directly.
+     * @param in partially-consumed input
+     * @throws ValidationException if a value is invalid
+     * @throws EOFException if the input ends early
+     */
+    Request(ByteMessageInput in) throws ValidationException, EOFException {
+        String command = in.nextToken();
+        if (!RUN.equals(command) && !BATCH.equals(command))
+            throw new ValidationException("Invalid command", command);
+        in.expectNextString(" ");
+        String[] first = readStep(in);
+        var steps = new ArrayList<String[]>();
+        if (BATCH.equals(command)) {
+            do {
+                in.expectNextString(STEP_PREFIX);
+                steps.add(readStep(in));
+            }
+            while (in.nextStringMatches(STEP_PREFIX));
+        }
+        var cookies = new CookieList(in);
+
+        // Tokens were validated as they were read
+        setTrustedFunction(first[0]);
+        this.params = Arrays.copyOfRange(first, 1, first.length);
+        this.nextSteps = toSteps(steps);
+        setCookieList(cookies);
+    }
+
+    // Reads the function and params of one step, through the end of its line. Returns [function, params...].
+    private static String[] readStep(MessageInput in) throws ValidationException, IOException {
+        var tokens = new ArrayList<String>();
+        tokens.add(in.nextToken());
         while (in.nextStringMatches(" ")) {
             in.skip(1);
-            params.add(in.nextToken());
+            tokens.add(in.nextToken());
         }
         Parsing.expectNextString(in, NEWLINE);
-        var cookies = new CookieList(in);
+        return tokens.toArray(new String[0]);
+    }
 
-        setFunction(function);
-        setParams(params.toArray(new String[0]));
-        setCookieList(cookies);
+    // Same as readStep(MessageInput), but reading bytes directly
+    private static String[] readStep(ByteMessageInput in) throws ValidationException, EOFException {
+        var tokens = new ArrayList<String>();
+        tokens.add(in.nextInternedToken());
+        while (in.nextStringMatches(" ")) {
+            in.skip(1);
+            tokens.add(in.nextToken());
+        }
+        in.expectNextString(NEWLINE);
+        return tokens.toArray(new String[0]);
+    }
+
+    // Makes steps from validated [function, params...] arrays
+    private static Step[] toSteps(List<String[]> steps) {
+        if (steps.isEmpty())
+            return NO_STEPS;
+        var result = new Step[steps.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = new Step(steps.get(i));
+        }
+        return result;
     }
 
     @Override
     protected void doEncode(MessageOutput out) throws IOException {
-        out.write("Q RUN ", getFunction());
+        out.write("Q ", command(), " ", getFunction());
         for (String param : params) {
             out.write(" ", param);
         }
         out.write(NEWLINE);
+        for (Step step : nextSteps) {
+            out.write(STEP_PREFIX, step.function);
+            for (String param : step.params) {
+                out.write(" ", param);
+            }
+            out.write(NEWLINE);
+        }
+    }
+
+    @Override
+    protected int doEncodedLength() {
+        int len = "Q ".length() + command().length() + 1 + getFunction().length() + NEWLINE.length();
+        for (String param : params) {
+            len += 1 + param.length();
+        }
+        for (Step step : nextSteps) {
+            len += STEP_PREFIX.length() + step.encodedLength();
+        }
+        return len;
+    }
+
+    @Override
+    protected void doEncode(ByteBuffer out) {
+        putAscii(out, "Q ", command(), " ", getFunction());
+        for (String param : params) {
+            putAscii(out, " ", param);
+        }
+        putAscii(out, NEWLINE);
+        for (Step step : nextSteps) {
+            putAscii(out, STEP_PREFIX, step.function);
+            for (String param : step.params) {
+                putAscii(out, " ", param);
+            }
+            putAscii(out, NEWLINE);
+        }
+    }
+
+    private String command() {
+        return nextSteps.length == 0 ? RUN : BATCH;
     }
 
     /**
@@ -101,17 +338,48 @@ public class Request extends Message {
         return this;
     }
 
+    /**
+     * Returns the steps to run after this request's own function, in order
+     * @return further steps; empty unless this is a batch
+     */
+    public List<Step> getNextSteps() {
+        return List.of(nextSteps);
+    }
+
+    /**
+     * Sets the steps to run after this request's own function
+     * @param nextSteps further steps, in order; empty for a plain request
+     * @return this Request with new steps
+     * @throws NullPointerException if null list or list element
+     */
+    public Request setNextSteps(List<Step> nextSteps) {
+        deepCheckNull(nextSteps, "nextSteps");
+        this.nextSteps = nextSteps.toArray(NO_STEPS);
+        return this;
+    }
+
+    /**
+     * Indicates whether this request has steps after its own function
+     * @return whether this is a batch
+     */
+    public boolean isBatch() {
+        return nextSteps.length > 0;
+    }
+
     /**
      * Returns a String representation a form like:
-     * "REQUEST: GO p1 p2 Cookies=[a=1,b=2]"
+     * "REQUEST: GO p1 p2 Cookies=[a=1,b=2]", with " THEN fn p1" before the cookies for each further step
      * @return String representation of the request
      */
     @Override
     public String toString() {
-        return "REQUEST: GO "
-                + getFunction() + " "
-                + String.join(" ", params)  + " "
-                + getCookieList();
+        var str = new StringBuilder("REQUEST: GO ")
+                .append(getFunction()).append(' ')
+                .append(String.join(" ", params)).append(' ');
+        for (Step step : nextSteps) {
+            str.append("THEN ").append(step).append(' ');
+        }
+        return str.append(getCookieList()).toString();
     }
 
     @Override
@@ -120,13 +388,14 @@ public class Request extends Message {
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         Request request = (Request) o;
-        return Arrays.equals(params, request.params);
+        return Arrays.equals(params, request.params) && Arrays.equals(nextSteps, request.nextSteps);
     }
 
     @Override
     public int hashCode() {
         int result = super.hashCode();
         result = 31 * result + Arrays.hashCode(params);
+        result = 31 * result + Arrays.hashCode(nextSteps);
         return result;
     }
 }
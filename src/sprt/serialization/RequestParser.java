@@ -0,0 +1,391 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static sprt.serialization.Message.SPRT_CHARSET;
+import static sprt.serialization.Message.SPRT_VERSION_HEADER;
+import static sprt.serialization.Util.checkNull;
+
+/**
+ * Incremental (push-based) Request parser.
+ *
+ * Bytes are fed in as they arrive, in chunks of any size, and the parser remembers where it is
+ * (header, function, params, batch steps, cookie lines) between calls. A Request is returned as soon
+ * as its final CRLF is seen, so each byte is only examined once, and invalid input is rejected at the
+ * first byte that can't be part of a valid request instead of after the whole message arrives.
+ *
+ * Cookie lines are validated as they arrive but kept as raw bytes; the Request's cookie list only
+ *   splits them into names and values if something looks at them.
+ */
+public class RequestParser {
+    /** Default maximum size of a single request, in bytes */
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 64 * 1024;
+
+    // Everything before the command, which is the same for every request
+    private static final String PREFIX = SPRT_VERSION_HEADER + MessageType.Request.token + " ";
+    // Where the message type starts in PREFIX. Used to pick the error message for a mismatch.
+    private static final int TYPE_START = SPRT_VERSION_HEADER.length();
+
+    private enum Step {
+        // Matching PREFIX
+        Prefix,
+        // Reading the command token
+        Command,
+        // Reading the function token of the first line or a batch step
+        Function,
+        // Reading a parameter token (after a space)
+        Param,
+        // Got CR at the end of the first line or a batch step; expecting LF
+        LineEnd,
+        // Matching Request.STEP_PREFIX at the start of the first step line of a batch
+        StepPrefix,
+        // At the start of a batch step, a cookie line, or the final CRLF
+        CookieStart,
+        // Reading a cookie name
+        CookieName,
+        // Reading a cookie value (after =)
+        CookieValue,
+        // Got CR at the end of a cookie line; expecting LF
+        CookieLineEnd,
+        // Got CR of the final CRLF; expecting LF
+        MessageEnd
+    }
+
+    // Max number of bytes in one request
+    private final int maxMessageSize;
+
+    // Where the parser is in the current request
+    private Step step = Step.Prefix;
+    // Number of bytes of the current request consumed so far
+    private int messageSize = 0;
+    // Index into PREFIX (or Request.STEP_PREFIX) of the next expected byte
+    private int prefixIdx = 0;
+    // Initial sizes of token and cookieBytes. Arrays grown past these are dropped between requests, so an
+    //   idle connection doesn't keep room for the biggest request it ever sent.
+    private static final int TOKEN_SIZE = 32;
+    private static final int COOKIE_BYTES_SIZE = 64;
+
+    // Bytes of the command, function, or parameter token currently being read
+    private byte[] token = new byte[TOKEN_SIZE];
+    private int tokenLen = 0;
+    // Whether the command is BATCH
+    private boolean batch = false;
+    // Tokens of the line being read: function, then params
+    private final List<String> lineTokens = new ArrayList<>();
+    // Parts of the request finished so far
+    private String function;
+    private String[] params;
+    // Batch steps after the first line, each as [function, params...]
+    private final List<String[]> steps = new ArrayList<>();
+    // Cookie lines read so far, exactly as received
+    private byte[] cookieBytes = new byte[COOKIE_BYTES_SIZE];
+    private int cookieLen = 0;
+    // Index in cookieBytes where the cookie name or value currently being read starts
+    private int cookieTokenStart = 0;
+
+    /**
+     * Creates a parser that accepts requests up to {@link #DEFAULT_MAX_MESSAGE_SIZE} bytes.
+     */
+    public RequestParser() {
+        this(DEFAULT_MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * Creates a parser that accepts requests up to the given size.
+     * @param maxMessageSize max number of bytes in a request, including the final CRLF
+     * @throws IllegalArgumentException if maxMessageSize is not positive
+     */
+    public RequestParser(int maxMessageSize) {
+        if (maxMessageSize <= 0)
+            throw new IllegalArgumentException("maxMessageSize must be positive");
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Consumes bytes from the buffer until either a full Request has been read or the buffer is empty.
+     *
+     * If a Request is returned, the buffer's position is just after it; any remaining bytes belong to the
+     *   next request and should be passed to this method again. Otherwise, every remaining byte was consumed.
+     *
+     * If invalid input is found, the parser is reset to expect the start of a new request.
+     * @param buffer newly received bytes
+     * @return the completed Request, or null if more bytes are needed
+     * @throws ValidationException if the bytes can't be part of a valid request, or the request is too long
+     * @throws NullPointerException if buffer is null
+     */
+    public Request parse(ByteBuffer buffer) throws ValidationException {
+        checkNull(buffer, "buffer");
+        try {
+            while (buffer.hasRemaining()) {
+                if (++messageSize > maxMessageSize)
+                    throw new ValidationException("Request longer than " + maxMessageSize + " bytes", tokenString());
+                if (consume(buffer.get())) {
+                    var cookies = CookieList.fromValidatedBytes(Arrays.copyOf(cookieBytes, cookieLen));
+                    var request = Request.fromValidated(function, params, new ArrayList<>(steps), cookies);
+                    reset();
+                    return request;
+                }
+            }
+            return null;
+        }
+        catch (ValidationException e) {
+            reset();
+            throw e;
+        }
+    }
+
+    /**
+     * Indicates whether the parser is between requests (no bytes of a new request have been consumed).
+     * @return true if no partial request is buffered
+     */
+    public boolean isIdle() {
+        return messageSize == 0;
+    }
+
+    /**
+     * Discards any partially-parsed request.
+     */
+    public void reset() {
+        step = Step.Prefix;
+        messageSize = 0;
+        prefixIdx = 0;
+        tokenLen = 0;
+        batch = false;
+        lineTokens.clear();
+        function = null;
+        params = null;
+        steps.clear();
+        cookieLen = 0;
+        cookieTokenStart = 0;
+        if (token.length > TOKEN_SIZE)
+            token = new byte[TOKEN_SIZE];
+        if (cookieBytes.length > COOKIE_BYTES_SIZE)
+            cookieBytes = new byte[COOKIE_BYTES_SIZE];
+    }
+
+    // Advances the state machine by one byte. Returns true if the request is complete.
+    private boolean consume(byte b) throws ValidationException {
+        switch (step) {
+            case Prefix -> {
+                if (b != PREFIX.charAt(prefixIdx))
+                    throw prefixMismatch(b);
+                if (++prefixIdx == PREFIX.length())
+                    step = Step.Command;
+            }
+            case Command -> {
+                if (Util.isAlnum(b)) {
+                    appendToken(b);
+                    if (!tokenStartsOneOf(Request.RUN, Request.BATCH))
+                        throw new ValidationException("Invalid command", tokenString());
+                }
+                else if (b == ' ' && (tokenEquals(Request.RUN) || tokenEquals(Request.BATCH))) {
+                    batch = tokenEquals(Request.BATCH);
+                    tokenLen = 0;
+                    step = Step.Function;
+                }
+                else if (tokenEquals(Request.RUN) || tokenEquals(Request.BATCH)) {
+                    throw new ValidationException("Expected to get \" \"", String.valueOf((char) (b & 0xFF)));
+                }
+                else {
+                    throw new ValidationException("Invalid command", tokenString());
+                }
+            }
+            case Function, Param -> {
+                if (Util.isAlnum(b)) {
+                    appendToken(b);
+                }
+                else if (b == ' ' || b == '\r') {
+                    // Function names repeat across requests; params mostly don't
+                    lineTokens.add(step == Step.Function ? takeInternedToken(b) : takeToken(b));
+                    if (b == ' ') {
+                        step = Step.Param;
+                    }
+                    else {
+                        endLine();
+                        step = Step.LineEnd;
+                    }
+                }
+                else {
+                    throw badToken(b);
+                }
+            }
+            case StepPrefix -> {
+                if (b != Request.STEP_PREFIX.charAt(prefixIdx)) {
+                    throw new ValidationException("Expected to get \"" + Request.STEP_PREFIX + "\"",
+                            Request.STEP_PREFIX.substring(0, prefixIdx) + (char) (b & 0xFF));
+                }
+                if (++prefixIdx == Request.STEP_PREFIX.length())
+                    step = Step.Function;
+            }
+            case LineEnd, CookieLineEnd, MessageEnd -> {
+                if (b != '\n')
+                    throw new ValidationException("Expected to get \"" + Message.NEWLINE + "\"", "\r" + (char) (b & 0xFF));
+                if (step == Step.MessageEnd)
+                    return true;
+                if (step == Step.CookieLineEnd) {
+                    appendCookie(b);
+                    cookieTokenStart = cookieLen;
+                }
+                // A batch has at least one step after the first line
+                if (step == Step.LineEnd && batch && steps.isEmpty()) {
+                    prefixIdx = 0;
+                    step = Step.StepPrefix;
+                }
+                else {
+                    step = Step.CookieStart;
+                }
+            }
+            case CookieStart -> {
+                if (b == '\r') {
+                    step = Step.MessageEnd;
+                }
+                else if (Util.isAlnum(b)) {
+                    cookieTokenStart = cookieLen;
+                    appendCookie(b);
+                    step = Step.CookieName;
+                }
+                else {
+                    throw badToken(b);
+                }
+            }
+            case CookieName -> {
+                if (Util.isAlnum(b)) {
+                    appendCookie(b);
+                }
+                else if (b == '=') {
+                    appendCookie(b);
+                    cookieTokenStart = cookieLen;
+                    step = Step.CookieValue;
+                }
+                else if (b == ' ' && isStepPrefix()) {
+                    // Not a cookie after all, but another batch step
+                    cookieLen = 0;
+                    step = Step.Function;
+                }
+                else {
+                    throw new ValidationException("Expected to get \"=\"", tokenString() + (char) (b & 0xFF));
+                }
+            }
+            case CookieValue -> {
+                if (Util.isAlnum(b)) {
+                    appendCookie(b);
+                }
+                else if (b == '\r' && cookieLen > cookieTokenStart) {
+                    appendCookie(b);
+                    step = Step.CookieLineEnd;
+                }
+                else {
+                    throw badToken(b);
+                }
+            }
+        }
+        return false;
+    }
+
+    // Builds the exception for a byte that doesn't match PREFIX, worded like the equivalent decode error
+    private ValidationException prefixMismatch(byte b) {
+        String got = PREFIX.substring(0, prefixIdx) + (char) (b & 0xFF);
+        if (prefixIdx < TYPE_START)
+            return new ValidationException("Expected to get \"" + SPRT_VERSION_HEADER + "\"", got);
+        return new ValidationException("Expected type " + MessageType.Request, got.substring(TYPE_START));
+    }
+
+    // Stores the tokens of the line just finished as the first line or a batch step
+    private void endLine() {
+        var tokens = lineTokens.toArray(new String[0]);
+        lineTokens.clear();
+        if (function == null) {
+            function = tokens[0];
+            params = Arrays.copyOfRange(tokens, 1, tokens.length);
+        }
+        else {
+            steps.add(tokens);
+        }
+    }
+
+    // Whether the cookie name just read is really the start of a batch step: only possible in a batch, on a
+    //   line before any cookie
+    private boolean isStepPrefix() {
+        String run = Request.RUN;
+        if (!batch || cookieTokenStart != 0 || cookieLen != run.length())
+            return false;
+        for (int i = 0; i < cookieLen; ++i) {
+            if (cookieBytes[i] != run.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    // Whether the token read so far is the start of one of the given (ASCII) strings
+    private boolean tokenStartsOneOf(String a, String b) {
+        return tokenLen <= a.length() && tokenMatches(a) || tokenLen <= b.length() && tokenMatches(b);
+    }
+
+    // Whether the token read so far is exactly str
+    private boolean tokenEquals(String str) {
+        return tokenLen == str.length() && tokenMatches(str);
+    }
+
+    // Whether the token read so far matches the start of str, which must be at least as long
+    private boolean tokenMatches(String str) {
+        for (int i = 0; i < tokenLen; ++i) {
+            if (token[i] != str.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    // Builds the exception for a byte that isn't allowed in (or after) the current token
+    private ValidationException badToken(byte b) {
+        return new ValidationException("Expected token, got non-token String", tokenString() + (char) (b & 0xFF));
+    }
+
+    private void appendToken(byte b) {
+        if (tokenLen == token.length)
+            token = Arrays.copyOf(token, token.length * 2);
+        token[tokenLen++] = b;
+    }
+
+    // Returns the current token and starts a new one. The token must be non-empty.
+    private String takeToken(byte terminator) throws ValidationException {
+        if (tokenLen == 0)
+            throw badToken(terminator);
+        String tok = new String(token, 0, tokenLen, SPRT_CHARSET);
+        tokenLen = 0;
+        return tok;
+    }
+
+    // Same as takeToken, but returns the token's interned String (see TokenTable)
+    private String takeInternedToken(byte terminator) throws ValidationException {
+        if (tokenLen == 0)
+            throw badToken(terminator);
+        String tok = TokenTable.intern(token, 0, tokenLen);
+        tokenLen = 0;
+        return tok;
+    }
+
+    private void appendCookie(byte b) {
+        if (cookieLen == cookieBytes.length)
+            cookieBytes = Arrays.copyOf(cookieBytes, cookieBytes.length * 2);
+        cookieBytes[cookieLen++] = b;
+    }
+
+    // Current token: on the first line and step lines, the token buffer; on cookie lines, the name or value
+    //   being read
+    private String tokenString() {
+        if (step.compareTo(Step.CookieStart) >= 0)
+            return new String(cookieBytes, cookieTokenStart, cookieLen - cookieTokenStart, SPRT_CHARSET);
+        return new String(token, 0, tokenLen, SPRT_CHARSET);
+    }
+}
@@ -8,7 +8,9 @@
 
 package sprt.serialization;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import static sprt.serialization.Util.checkNull;
@@ -82,7 +84,7 @@ public class Response extends Message {
         Parsing.expectNextString(in, " ");
 
         String function = in.nextToken();
-        setFunction(function); // & validate
+        setTrustedFunction(function); // already validated by nextToken
         Parsing.expectNextString(in, " ");
 
         String message = in.readToDelimiter(NEWLINE);
@@ -93,11 +95,52 @@ public class Response extends Message {
         setCookieList(cookies);
     }
 
+    /**
+     * Same as {@link #Response(MessageInput)}, but reading bytes directly.
+     * @param in partially-consumed input
+     * @throws ValidationException if error with given values
+     * @throws EOFException if the input ends early
+     */
+    Response(ByteMessageInput in) throws ValidationException, EOFException {
+        String statusStr = in.nextToken();
+        Status status;
+        try {
+            status = Status.valueOf(statusStr);
+        }
+        catch (IllegalArgumentException e) {
+            throw new ValidationException("Invalid status", statusStr, e);
+        }
+        setStatus(status);
+        in.expectNextString(" ");
+
+        String function = in.nextInternedToken();
+        setTrustedFunction(function); // already validated by nextToken
+        in.expectNextString(" ");
+
+        String message = in.readToNewline();
+        setMessage(message); // & validate
+        in.expectNextString(NEWLINE);
+
+        var cookies = new CookieList(in);
+        setCookieList(cookies);
+    }
+
     @Override
     protected void doEncode(MessageOutput out) throws IOException {
         out.writeLine("R ", status.toString(), " ", getFunction(), " ", message);
     }
 
+    @Override
+    protected int doEncodedLength() {
+        return "R ".length() + status.toString().length() + 1 + getFunction().length() + 1
+                + message.length() + NEWLINE.length();
+    }
+
+    @Override
+    protected void doEncode(ByteBuffer out) {
+        putAscii(out, "R ", status.toString(), " ", getFunction(), " ", message, NEWLINE);
+    }
+
     /**
      * Returns the status
      * @return status
@@ -135,7 +178,7 @@ public class Response extends Message {
     public Response setMessage(String message) throws ValidationException
     {
         checkNull(message, "message");
-        if (message.chars().anyMatch(c -> c < 0x20 || c > 0x7F))
+        if (!Parsing.isPrintable(message))
             throw new ValidationException("message contains unprintable character", message);
 
         this.message = message;
@@ -0,0 +1,166 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.serialization;
+
+import java.nio.ByteBuffer;
+
+import static sprt.serialization.Message.SPRT_CHARSET;
+import static sprt.serialization.Util.checkNull;
+
+/**
+ * Process-wide intern table for the tokens that repeat across requests (function and cookie names) read by the
+ *   decoders. Params and cookie values, which are mostly particular to a client, aren't interned, so they
+ *   don't push the shared names out of the table.
+ *
+ * When the bytes of a token match an interned String, that String is returned and nothing is allocated.
+ *   Pinned tokens (e.g. app state names) are never evicted. Other tokens are cached in a fixed-size,
+ *   direct-mapped table where a new token simply replaces whatever was in its slot, so frequently seen
+ *   tokens stay cached and the table never grows.
+ */
+public final class TokenTable {
+    /** Longest token that is cached. Longer tokens are rare and unlikely to repeat. */
+    public static final int MAX_TOKEN_LENGTH = 32;
+    // Number of cache slots. Must be a power of 2.
+    private static final int CACHE_SIZE = 1024;
+
+    // Direct-mapped cache of recently seen tokens. Slots are written without locking; that's safe because
+    //   Strings are immutable, and a lost update only costs a cache miss.
+    private static final String[] cache = new String[CACHE_SIZE];
+    // Open-addressed (linear probing) table of pinned tokens. Replaced, never modified, once published.
+    private static volatile String[] pinned = new String[16];
+    // Number of pinned tokens. Guarded by TokenTable.class.
+    private static int pinnedCount = 0;
+
+    private TokenTable() {
+    }
+
+    /**
+     * Pins the given tokens so the decoders always return these instances for them.
+     * @param tokens tokens to pin
+     * @throws NullPointerException if tokens or any token is null
+     * @throws IllegalArgumentException if a String is not a token
+     */
+    public static void pin(String... tokens) {
+        checkNull(tokens, "tokens");
+        for (var token : tokens) {
+            if (isPinned(token))
+                continue;
+            if (!Parsing.isToken(token))
+                throw new IllegalArgumentException("Not a token: " + token);
+            addPinned(token);
+        }
+    }
+
+    /**
+     * Indicates whether the given token is pinned.
+     * @param token token to check
+     * @return true if token is pinned
+     * @throws NullPointerException if token is null
+     */
+    public static boolean isPinned(String token) {
+        checkNull(token, "token");
+        var table = pinned;
+        int mask = table.length - 1;
+        for (int i = spread(token.hashCode()) & mask; table[i] != null; i = (i + 1) & mask) {
+            if (table[i].equals(token))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the interned String for the given ASCII bytes, creating (and caching) it if needed.
+     * @param bytes array containing the token
+     * @param off index of first byte
+     * @param len number of bytes
+     * @return String of the bytes
+     */
+    static String intern(byte[] bytes, int off, int len) {
+        if (len > MAX_TOKEN_LENGTH)
+            return new String(bytes, off, len, SPRT_CHARSET);
+
+        // Same as String.hashCode for ASCII, so pinned Strings can be found by their bytes
+        int hash = 0;
+        for (int i = off; i < off + len; ++i) {
+            hash = 31 * hash + (bytes[i] & 0xFF);
+        }
+        hash = spread(hash);
+
+        var table = pinned;
+        int mask = table.length - 1;
+        for (int i = hash & mask; table[i] != null; i = (i + 1) & mask) {
+            if (matches(table[i], bytes, off, len))
+                return table[i];
+        }
+
+        int slot = hash & (CACHE_SIZE - 1);
+        var str = cache[slot];
+        if (str != null && matches(str, bytes, off, len))
+            return str;
+        str = new String(bytes, off, len, SPRT_CHARSET);
+        cache[slot] = str;
+        return str;
+    }
+
+    /**
+     * Same as {@link #intern(byte[], int, int)}, reading from a buffer.
+     * @param buf buffer containing the token
+     * @param start absolute index of first byte
+     * @param end absolute index after last byte
+     * @return String of the bytes
+     */
+    static String intern(ByteBuffer buf, int start, int end) {
+        if (buf.hasArray())
+            return intern(buf.array(), buf.arrayOffset() + start, end - start);
+        var bytes = new byte[end - start];
+        buf.get(start, bytes);
+        return intern(bytes, 0, bytes.length);
+    }
+
+    // Adds a token to a copy of the pinned table and publishes it
+    private static synchronized void addPinned(String token) {
+        if (isPinned(token))
+            return;
+        var table = pinned;
+        // Keep the table at most half full
+        int length = (pinnedCount + 1) * 2 > table.length ? table.length * 2 : table.length;
+        var newTable = new String[length];
+        for (var t : table) {
+            if (t != null)
+                insert(newTable, t);
+        }
+        insert(newTable, token);
+        ++pinnedCount;
+        pinned = newTable;
+    }
+
+    // Whether str is exactly the given ASCII bytes
+    private static boolean matches(String str, byte[] bytes, int off, int len) {
+        if (str.length() != len)
+            return false;
+        for (int i = 0; i < len; ++i) {
+            if (str.charAt(i) != (bytes[off + i] & 0xFF))
+                return false;
+        }
+        return true;
+    }
+
+    private static void insert(String[] table, String token) {
+        int mask = table.length - 1;
+        int i = spread(token.hashCode()) & mask;
+        while (table[i] != null)
+            i = (i + 1) & mask;
+        table[i] = token;
+    }
+
+    // Mixes high bits into low bits, since only the low bits pick a slot
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -15,6 +15,22 @@ import java.util.stream.StreamSupport;
 
 /** Contains common utility methods for SPRT serialization. */
 public class Util {
+    // Character class flags, indexed by ASCII code
+    private static final byte ALNUM = 1;
+    private static final byte PRINTABLE = 2;
+    private static final byte[] CHAR_CLASS = new byte[128];
+    static {
+        for (char c = 0x20; c <= 0x7F; ++c) {
+            CHAR_CLASS[c] |= PRINTABLE;
+        }
+        for (char c = '0'; c <= '9'; ++c) {
+            CHAR_CLASS[c] |= ALNUM;
+        }
+        for (char c = 'A'; c <= 'Z'; ++c) {
+            CHAR_CLASS[c] |= ALNUM;
+            CHAR_CLASS[Character.toLowerCase(c)] |= ALNUM;
+        }
+    }
 
     /**
      * Requires that x is non-null.
@@ -71,9 +87,25 @@ public class Util {
      * @return true if c is alphanumeric; else, false.
      */
     public static boolean isAlnum(char c) {
-        return (c >= 'A' && c <= 'Z')
-                || (c >= 'a' && c <= 'z')
-                || (c >= '0' && c <= '9');
+        return c < CHAR_CLASS.length && (CHAR_CLASS[c] & ALNUM) != 0;
+    }
+
+    /**
+     * Same as {@link #isAlnum(char)}, for an ASCII byte.
+     * @param b byte to check
+     * @return true if b is alphanumeric; else, false.
+     */
+    public static boolean isAlnum(byte b) {
+        return b >= 0 && (CHAR_CLASS[b] & ALNUM) != 0;
+    }
+
+    /**
+     * Determines whether c is allowed in a response message (0x20 through 0x7F).
+     * @param c character to check
+     * @return true if c is printable; else, false.
+     */
+    public static boolean isPrintable(char c) {
+        return c < CHAR_CLASS.length && (CHAR_CLASS[c] & PRINTABLE) != 0;
     }
 
     /**
@@ -295,6 +295,50 @@ class CookieListTest {
             assertThrows(ValidationException.class, () -> list.add("myCookie", "hello_world"));
         }
 
+        // Changing a copy shouldn't change the original, or vice versa
+        @Test
+        void copyIsIndependent() throws ValidationException {
+            var list = fooBarList();
+            var copy = new CookieList(list);
+            copy.add("foo", "2").add("baz", "3");
+            list.add("qux", "4");
+            assertEquals("Cookies=[bar=2,foo=1,qux=4]", list.toString());
+            assertEquals("Cookies=[bar=2,baz=3,foo=2]", copy.toString());
+        }
+
+        // A names set should be a snapshot in ascending order
+        @Test
+        void getNamesIsSnapshot() throws ValidationException {
+            var list = fooBarList();
+            var names = list.getNames();
+            list.add("baz", "3");
+            assertEquals(List.of("bar", "foo"), List.copyOf(names));
+            assertThrows(UnsupportedOperationException.class, () -> names.add("qux"));
+        }
+
+        // addAll should merge the lists, with the other list's values winning
+        @Test
+        void addAllMerges() throws ValidationException {
+            var list = new CookieList().add("a", "1").add("c", "1").add("e", "1");
+            var other = new CookieList().add("b", "2").add("c", "2").add("f", "2");
+            list.addAll(other);
+            assertEquals("Cookies=[a=1,b=2,c=2,e=1,f=2]", list.toString());
+            assertEquals("Cookies=[b=2,c=2,f=2]", other.toString());
+            other.add("a", "3");
+            assertEquals("1", list.getValue("a"));
+        }
+
+        // addAll into an empty list shares the other list until one of them changes
+        @Test
+        void addAllToEmpty() throws ValidationException {
+            var other = fooBarList();
+            var list = new CookieList().addAll(other);
+            assertEquals(other, list);
+            assertEquals(other.hashCode(), list.hashCode());
+            list.add("foo", "9");
+            assertEquals("1", other.getValue("foo"));
+        }
+
     }
 
     @Nested
@@ -23,6 +23,10 @@ import shared.serialization.test.reflection.MethodInvocation;
 import sprt.serialization.*;
 
 import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -168,6 +172,91 @@ public class MessageTest {
         }
     }
 
+    // Tests that decoding straight from bytes behaves exactly like decoding from a MessageInput
+    @Nested
+    class DecodeBytes {
+        // Tests that valid inputs decode to the same message either way
+        @ParameterizedTest
+        @MethodSource({"sprt.serialization.test.MessageTest#validRequestStrings", "sprt.serialization.test.MessageTest#validResponseStrings"})
+        void sameAsStream(String str) throws ValidationException, IOException {
+            var expected = Message.decode(makeTestMessageInput(str));
+            assertEquals(expected, Message.decode(bytes(str)));
+        }
+        // Tests that invalid inputs cause a VE with the same bad token
+        @ParameterizedTest
+        @MethodSource({"sprt.serialization.test.MessageTest#invalidRequestStrings", "sprt.serialization.test.MessageTest#invalidResponseStrings"})
+        void invalidMessages(String str) {
+            var expected = assertThrows(ValidationException.class, () -> Message.decode(makeTestMessageInput(str)));
+            var actual = assertThrows(ValidationException.class, () -> Message.decode(bytes(str)));
+            assertEquals(expected.getToken(), actual.getToken());
+        }
+        // Tests that every truncation of a valid message fails the same way it would from a stream
+        @ParameterizedTest
+        @MethodSource({"sprt.serialization.test.MessageTest#validRequestStrings", "sprt.serialization.test.MessageTest#validResponseStrings"})
+        void prematureEndOfBuffer(String str) {
+            for (int i = 0; i < str.length(); ++i) {
+                var prefix = str.substring(0, i);
+                var expected = assertThrows(Exception.class, () -> Message.decode(makeTestMessageInput(prefix)));
+                assertThrows(expected.getClass(), () -> Message.decode(bytes(prefix)), prefix);
+            }
+        }
+        // Tests that decodeType rejects the wrong type
+        @Test
+        void wrongType() {
+            assertThrows(ValidationException.class,
+                    () -> Message.decodeType(bytes("SPRT/1.0 R OK Fn \r\n\r\n"), MessageType.Request));
+        }
+        // Tests that two Messages can be deserialized from a single buffer, and the position ends after both
+        @ParameterizedTest
+        @MethodSource({"sprt.serialization.test.MessageTest#validRequestStrings", "sprt.serialization.test.MessageTest#validResponseStrings"})
+        void twoInOneBuffer(String str) throws ValidationException, IOException {
+            var buf = bytes(str + str);
+            var msg1 = Message.decode(buf);
+            var msg2 = Message.decode(buf);
+            assertEquals(msg1, msg2);
+            assertFalse(buf.hasRemaining());
+        }
+        // Tests decoding from a direct, read-only buffer (no backing array)
+        @ParameterizedTest
+        @MethodSource({"sprt.serialization.test.MessageTest#validRequestStrings", "sprt.serialization.test.MessageTest#validResponseStrings"})
+        void directBuffer(String str) throws ValidationException, IOException {
+            var heap = bytes(str);
+            var direct = ByteBuffer.allocateDirect(heap.remaining()).put(heap).flip().asReadOnlyBuffer();
+            assertEquals(Message.decode(makeTestMessageInput(str)), Message.decode(direct));
+        }
+        // Tests that a message decoded from bytes (with cookies not yet parsed) re-encodes like a stream-decoded one
+        @ParameterizedTest
+        @MethodSource({"sprt.serialization.test.MessageTest#validRequestStrings", "sprt.serialization.test.MessageTest#validResponseStrings"})
+        void reencodeSameAsStream(String str) throws ValidationException, IOException {
+            var s = new ByteArrayOutputStream();
+            Message.decode(makeTestMessageInput(str)).encode(new MessageOutput(s));
+            var expected = s.toByteArray();
+
+            var msg = Message.decode(bytes(str));
+            assertEquals(expected.length, msg.encodedLength());
+            var buf = ByteBuffer.allocate(expected.length);
+            msg.encode(buf);
+            assertArrayEquals(expected, buf.array());
+        }
+        // Tests that out-of-order and repeated cookies are sorted and de-duplicated when re-encoded
+        @Test
+        void unsortedCookies() throws ValidationException, IOException {
+            var msg = Message.decode(bytes("SPRT/1.0 Q RUN Fn\r\nb=2\r\na=1\r\nb=3\r\n\r\n"));
+            var buf = ByteBuffer.allocate(msg.encodedLength());
+            msg.encode(buf);
+            assertEquals("SPRT/1.0 Q RUN Fn\r\na=1\r\nb=3\r\n\r\n", new String(buf.array(), StandardCharsets.US_ASCII));
+            assertEquals("3", msg.getCookieList().getValue("b"));
+        }
+        @Test
+        void nullBuffer() {
+            assertThrows(NullPointerException.class, () -> Message.decode((ByteBuffer) null));
+        }
+
+        private ByteBuffer bytes(String str) {
+            return ByteBuffer.wrap(str.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
     @Nested
     class Getters {
         // Tests that mutating the result of a getter doesn't mutate it within the Message
@@ -205,19 +294,90 @@ public class MessageTest {
         assertEquals(msg, decodedMsg);
     }
 
+    // Tests that encoding into a ByteBuffer writes exactly what encoding to a MessageOutput does
+    @ParameterizedTest
+    @MethodSource("messages")
+    void encodeToBufferSameAsStream(Message msg) throws IOException, ValidationException {
+        msg.setCookieList(new CookieList().add("zed", "26").add("abc", "1"));
+        var s = new ByteArrayOutputStream();
+        msg.encode(new MessageOutput(s));
+        var expected = s.toByteArray();
+
+        assertEquals(expected.length, msg.encodedLength());
+        var buf = ByteBuffer.allocate(expected.length + 3).put((byte) 'x');
+        msg.encode(buf);
+        assertEquals(expected.length + 1, buf.position());
+        assertArrayEquals(expected, Arrays.copyOfRange(buf.array(), 1, expected.length + 1));
+    }
+
+    // Tests that nothing is written if the message doesn't fit
+    @ParameterizedTest
+    @MethodSource("messages")
+    void encodeToBufferOverflow(Message msg) {
+        var buf = ByteBuffer.allocate(msg.encodedLength() - 1);
+        assertThrows(BufferOverflowException.class, () -> msg.encode(buf));
+        assertEquals(0, buf.position());
+    }
+
+    // Tests that short messages are encoded into just the head buffer
+    @ParameterizedTest
+    @MethodSource("messages")
+    void encodeSegmentsSmall(Message msg) {
+        var expected = ByteBuffer.allocate(msg.encodedLength());
+        msg.encode(expected);
+
+        var segments = msg.encodeSegments(ByteBuffer::allocate);
+        assertEquals(1, segments.length);
+        assertEquals(expected.flip(), segments[0]);
+    }
+
+    // Tests that long decoded cookie lines get their own segment, and the segments make up the whole message
+    @Test
+    void encodeSegmentsLongCookies() throws ValidationException, EOFException {
+        String cookieLines = "a=" + "1".repeat(Message.MIN_COOKIE_SEGMENT) + "\r\nb=2\r\n";
+        var decoded = Message.decode(ByteBuffer.wrap(("SPRT/1.0 Q RUN fn p1\r\n" + cookieLines + "\r\n")
+                .getBytes(StandardCharsets.US_ASCII)));
+        var expected = ByteBuffer.allocate(decoded.encodedLength());
+        decoded.encode(expected);
+
+        var segments = decoded.encodeSegments(ByteBuffer::allocate);
+        assertEquals(3, segments.length);
+        assertEquals(ByteBuffer.wrap(cookieLines.getBytes(StandardCharsets.US_ASCII)), segments[1]);
+        assertTrue(segments[1].isReadOnly());
+        var joined = ByteBuffer.allocate(expected.capacity());
+        for (var segment : segments) {
+            joined.put(segment);
+        }
+        assertEquals(expected.flip(), joined.flip());
+    }
+
+    @Test
+    void encodeToNullBuffer() {
+        assertThrows(NullPointerException.class, () -> msg.encode((ByteBuffer) null));
+    }
+
     // Gets a stream of MessageInputs that represent valid Requests
     static Stream<MessageInput> validRequestInputs() {
+        return validRequestStrings().map(MessageInputTest::makeTestMessageInput);
+    }
+
+    static Stream<String> validRequestStrings() {
         return Stream.of(
                 "SPRT/1.0 Q RUN Fn\r\n\r\n",
                 "SPRT/1.0 Q RUN Fn param1\r\nfoo=1\r\n\r\n",
-                "SPRT/1.0 Q RUN Fn 1 2 3\r\n1=1\r\n2=3\r\n\r\n"
-        )
-        .map(MessageInputTest::makeTestMessageInput);
+                "SPRT/1.0 Q RUN Fn 1 2 3\r\n1=1\r\n2=3\r\n\r\n",
+                "SPRT/1.0 Q BATCH Fn\r\nRUN Next p1\r\n\r\n",
+                "SPRT/1.0 Q BATCH Fn a b\r\nRUN Two\r\nRUN Three x\r\nRUN=1\r\nfoo=2\r\n\r\n"
+        );
     }
 
     // Gets a stream of MessageInputs that should cause a ValidationException
     // when decoded
     static Stream<MessageInput> invalidRequestInputs() {
+        return invalidRequestStrings().map(MessageInputTest::makeTestMessageInput);
+    }
+
+    static Stream<String> invalidRequestStrings() {
         return Stream.of(
                 "SPRT/3.1 Q RUN Fn\r\n\r\n",
                 " Q RUN Fn\r\n\r\n",
@@ -227,13 +387,22 @@ public class MessageTest {
                 "SPRT/1.0 R RUN Fn\r\n\r\n",
                 "SPRT/1.0 Q RUN Fn not_a_token\r\nfoo=1\r\n\r\n",
                 "SPRT/1.0 Q RUN Fn \r\nfoo=1\r\n\r\n",
-                "SPRT/1.0 Q RUN Fn param1 \r\nfoo=1\r\n\r\n"
-        )
-        .map(MessageInputTest::makeTestMessageInput);
+                "SPRT/1.0 Q RUN Fn param1 \r\nfoo=1\r\n\r\n",
+                "SPRT/1.0 Q BATCHY Fn\r\nRUN Next\r\n\r\n",
+                "SPRT/1.0 Q BATCH Fn\r\nfoo=1\r\n\r\n", // needs a step after the first
+                "SPRT/1.0 Q BATCH Fn\r\nRUNE=1\r\n\r\n",
+                "SPRT/1.0 Q BATCH Fn\r\nRUN \r\n\r\n",
+                "SPRT/1.0 Q BATCH Fn\r\nRUN Next\r\nfoo=1\r\nRUN Last\r\n\r\n", // steps go before cookies
+                "SPRT/1.0 Q RUN Fn\r\nRUN Next\r\n\r\n"
+        );
     }
 
     // Gets a stream of MessageInputs that represent valid Requests
     static Stream<MessageInput> validResponseInputs() {
+        return validResponseStrings().map(MessageInputTest::makeTestMessageInput);
+    }
+
+    static Stream<String> validResponseStrings() {
         return Stream.of(
                 "SPRT/1.0 R OK Fn This is a message.\r\n\r\n",
                 "SPRT/1.0 R OK Fn \r\n\r\n",
@@ -241,13 +410,16 @@ public class MessageTest {
                 "SPRT/1.0 R OK Fn \r\nfoo=1\r\nbar=2\r\n\r\n",
                 "SPRT/1.0 R ERROR Fn You forgot the thing\r\n\r\n",
                 "SPRT/1.0 R ERROR Fn \r\n\r\n"
-        )
-        .map(MessageInputTest::makeTestMessageInput);
+        );
     }
 
     // Gets a stream of MessageInputs that should cause a ValidationException
     // when decoded
     static Stream<MessageInput> invalidResponseInputs() {
+        return invalidResponseStrings().map(MessageInputTest::makeTestMessageInput);
+    }
+
+    static Stream<String> invalidResponseStrings() {
         return Stream.of(
                 "SPRT/1.0 R OK Fn\r\n\r\n", // needs space even if no message
                 "SPRT/3.1 R OK Fn Message\r\n\r\n",
@@ -257,8 +429,7 @@ public class MessageTest {
                 "SPRT/1.0 Z OK Fn Message\r\n\r\n",
                 "SPRT/1.0 R OK not_a_token Message\r\n\r\n",
                 "SPRT/1.0 R OK Fn unprintable \007 chars\r\n\r\n"
-        )
-        .map(MessageInputTest::makeTestMessageInput);
+        );
     }
 
     static Stream<Message> messages() {
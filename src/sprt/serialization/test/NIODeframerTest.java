@@ -8,12 +8,15 @@
 
 package sprt.serialization.test;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 import shared.MathUtil;
 import sprt.serialization.Message;
 import sprt.serialization.NIODeframer;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.stream.Stream;
 
@@ -54,6 +57,78 @@ public class NIODeframerTest {
         readInChunks(bytes(input), bytes(input).length / 2);
     }
 
+    @ParameterizedTest
+    @MethodSource("completeMessages")
+    void tripleMsg(String input) {
+        var data = ByteBuffer.wrap(bytes(input + input + input));
+        assertArrayEquals(bytes(input), deframer.getMessage(data));
+        assertArrayEquals(bytes(input), deframer.getMessage(new byte[0]));
+        assertArrayEquals(bytes(input), deframer.getMessage(new byte[0]));
+        assertNull(deframer.getMessage(new byte[0]));
+        assertEquals(0, deframer.dataSize());
+    }
+
+    @ParameterizedTest
+    @MethodSource("completeMessages")
+    void frameIsReadOnlyView(String input) {
+        var frame = deframer.getFrame(ByteBuffer.wrap(bytes(input)));
+        assertNotNull(frame);
+        assertTrue(frame.isReadOnly());
+        var contents = new byte[frame.remaining()];
+        frame.get(contents);
+        assertArrayEquals(bytes(input), contents);
+    }
+
+    @Test
+    void largeChunk() {
+        var input = "a".repeat(5000) + delim;
+        assertArrayEquals(bytes(input), deframer.getMessage(bytes(input)));
+    }
+
+    // Tests that a large pipelined burst of different frames comes back in order, regardless of chunking
+    @Test
+    void pipelinedBurst() {
+        var expected = new String[1000];
+        for (int i = 0; i < expected.length; ++i) {
+            expected[i] = "SPRT/1.0 Q RUN Fn " + i + "\r\n" + "x=1\r\n".repeat(i % 7) + "\r\n";
+        }
+        var data = bytes(String.join("", expected));
+        int pos = 0, next = 0;
+        while (pos < data.length) {
+            int chunkSize = MathUtil.randomInt(1, Math.min(3000, data.length - pos));
+            var msg = deframer.getMessage(Arrays.copyOfRange(data, pos, pos + chunkSize));
+            pos += chunkSize;
+            while (msg != null) {
+                assertArrayEquals(bytes(expected[next++]), msg);
+                msg = deframer.getMessage(new byte[0]);
+            }
+        }
+        assertEquals(expected.length, next);
+        assertEquals(0, deframer.dataSize());
+    }
+
+    // Tests that buffering too much without a delimiter fails and empties the deframer
+    @Test
+    void overflowWithoutDelimiter() {
+        var small = new NIODeframer(16);
+        assertNull(small.getMessage(bytes("a".repeat(16))));
+        assertThrows(BufferOverflowException.class, () -> small.getMessage(bytes("a")));
+        assertEquals(0, small.dataSize());
+        assertArrayEquals(bytes("ok" + delim), small.getMessage(bytes("ok" + delim)));
+    }
+
+    @Test
+    void frameTooLong() {
+        var small = new NIODeframer(16);
+        assertArrayEquals(bytes("a".repeat(12) + delim), small.getMessage(bytes("a".repeat(12) + delim)));
+        assertThrows(BufferOverflowException.class, () -> small.getMessage(bytes("a".repeat(13) + delim)));
+    }
+
+    @Test
+    void maxFrameSizeTooSmall() {
+        assertThrows(IllegalArgumentException.class, () -> new NIODeframer(3));
+    }
+
     private void readInChunks(byte[] bytes, int msgLen) {
         for (int trial = 0; trial < 100; ++trial) {
             int pos = 0;
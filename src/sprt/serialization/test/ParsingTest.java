@@ -96,6 +96,20 @@ public class ParsingTest {
         assertFalse(Parsing.isToken("hello world"));
     }
 
+    @Test
+    void isTokenEmpty() {
+        assertFalse(Parsing.isToken(""));
+        assertFalse(Parsing.isToken(null));
+    }
+
+    @Test
+    void isPrintable() {
+        assertTrue(Parsing.isPrintable("Name (First Last)> "));
+        assertTrue(Parsing.isPrintable(""));
+        assertFalse(Parsing.isPrintable("a\r\nb"));
+        assertFalse(Parsing.isPrintable("\u0389"));
+    }
+
     @Test
     void isTokenNonAscii() {
         assertFalse(Parsing.isToken("\u0389")); // unicode capital Greek omega
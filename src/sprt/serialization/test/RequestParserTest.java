@@ -0,0 +1,126 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.serialization.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import sprt.serialization.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static sprt.serialization.test.MessageInputTest.makeTestMessageInput;
+
+public class RequestParserTest {
+    private final RequestParser parser = new RequestParser();
+
+    // Tests that a whole request in one buffer parses to the same thing decode gives
+    @ParameterizedTest
+    @MethodSource("sprt.serialization.test.MessageTest#validRequestStrings")
+    void wholeRequest(String str) throws ValidationException, IOException {
+        var buf = bytes(str);
+        assertEquals(Message.decode(makeTestMessageInput(str)), parser.parse(buf));
+        assertFalse(buf.hasRemaining());
+        assertTrue(parser.isIdle());
+    }
+
+    // Tests that a request fed one byte at a time is only returned after the last byte
+    @ParameterizedTest
+    @MethodSource("sprt.serialization.test.MessageTest#validRequestStrings")
+    void byteAtATime(String str) throws ValidationException, IOException {
+        var data = str.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < data.length - 1; ++i) {
+            assertNull(parser.parse(ByteBuffer.wrap(data, i, 1)));
+            assertFalse(parser.isIdle());
+        }
+        var request = parser.parse(ByteBuffer.wrap(data, data.length - 1, 1));
+        assertEquals(Message.decode(makeTestMessageInput(str)), request);
+    }
+
+    // Tests that the parser stops right after the first request when a buffer holds two
+    @ParameterizedTest
+    @MethodSource("sprt.serialization.test.MessageTest#validRequestStrings")
+    void twoInOneBuffer(String str) throws ValidationException {
+        var buf = bytes(str + str);
+        var req1 = parser.parse(buf);
+        assertEquals(str.length(), buf.position());
+        var req2 = parser.parse(buf);
+        assertNotNull(req1);
+        assertEquals(req1, req2);
+    }
+
+    @ParameterizedTest
+    @MethodSource("sprt.serialization.test.MessageTest#invalidRequestStrings")
+    void invalidRequest(String str) {
+        assertThrows(ValidationException.class, () -> parser.parse(bytes(str)));
+    }
+
+    @Test
+    void wrongLineEnding() {
+        assertThrows(ValidationException.class, () -> parser.parse(bytes("SPRT/1.0 Q RUN Fn\nfoo=1\n\n")));
+        assertThrows(ValidationException.class, () -> parser.parse(bytes("SPRT/1.0 Q RUN Fn\r\nfoo=1\r\r\n")));
+    }
+
+    @Test
+    void badCookies() {
+        assertThrows(ValidationException.class, () -> parser.parse(bytes("SPRT/1.0 Q RUN Fn\r\n=1\r\n\r\n")));
+        assertThrows(ValidationException.class, () -> parser.parse(bytes("SPRT/1.0 Q RUN Fn\r\nfoo=\r\n\r\n")));
+        assertThrows(ValidationException.class, () -> parser.parse(bytes("SPRT/1.0 Q RUN Fn\r\nfoo 1\r\n\r\n")));
+    }
+
+    // Tests that garbage is rejected as soon as the first wrong byte arrives
+    @Test
+    void rejectsEarly() {
+        var buf = bytes("GET / HTTP/1.1\r\n\r\n");
+        assertThrows(ValidationException.class, () -> parser.parse(buf));
+        assertEquals(1, buf.position());
+    }
+
+    @Test
+    void rejectsResponse() {
+        var e = assertThrows(ValidationException.class, () -> parser.parse(bytes("SPRT/1.0 R OK Fn \r\n\r\n")));
+        assertEquals("R", e.getToken());
+    }
+
+    @Test
+    void tooLong() {
+        var smallParser = new RequestParser(30);
+        assertThrows(ValidationException.class,
+                () -> smallParser.parse(bytes("SPRT/1.0 Q RUN Fn\r\nfoo=1\r\nbar=2\r\n\r\n")));
+    }
+
+    // Tests that the parser can be used again after rejecting a request
+    @Test
+    void usableAfterError() throws ValidationException {
+        assertThrows(ValidationException.class, () -> parser.parse(bytes("SPRT/1.0 Q RUN Fn !")));
+        assertTrue(parser.isIdle());
+        assertNotNull(parser.parse(bytes("SPRT/1.0 Q RUN Fn\r\n\r\n")));
+    }
+
+    // Tests that cookies split across reads come out whole, sorted, with the last repeated value winning
+    @Test
+    void cookiesAcrossReads() throws ValidationException {
+        assertNull(parser.parse(bytes("SPRT/1.0 Q RUN Fn\r\nzed=2")));
+        assertNull(parser.parse(bytes("6\r\nabc=1\r")));
+        var request = parser.parse(bytes("\nzed=9\r\n\r\n"));
+        assertEquals("Cookies=[abc=1,zed=9]", request.getCookieList().toString());
+    }
+
+    @Test
+    void nullBuffer() {
+        assertThrows(NullPointerException.class, () -> parser.parse(null));
+    }
+
+    private static ByteBuffer bytes(String str) {
+        return ByteBuffer.wrap(str.getBytes(StandardCharsets.US_ASCII));
+    }
+}
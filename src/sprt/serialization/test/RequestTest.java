@@ -17,6 +17,11 @@ import sprt.serialization.ValidationException;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -82,6 +87,77 @@ public class RequestTest {
         }
     }
 
+    @Nested
+    class Batch {
+        private final List<Request.Step> steps = List.of(new Request.Step("two", new String[] {"x"}),
+                new Request.Step("three", new String[0]));
+
+        Batch() throws ValidationException {
+        }
+
+        @Test
+        void notBatchByDefault() {
+            assertFalse(request.isBatch());
+            assertTrue(request.getNextSteps().isEmpty());
+        }
+        @Test
+        void encode() {
+            request.setNextSteps(steps);
+            assertTrue(request.isBatch());
+            var buf = ByteBuffer.allocate(request.encodedLength());
+            request.encode(buf);
+            assertEquals("SPRT/1.0 Q BATCH function p1 p2\r\nRUN two x\r\nRUN three\r\nbar=2\r\nfoo=1\r\n\r\n",
+                    new String(buf.array(), StandardCharsets.US_ASCII));
+        }
+        @Test
+        void clearSteps() {
+            request.setNextSteps(steps).setNextSteps(List.of());
+            assertFalse(request.isBatch());
+        }
+        @Test
+        void stepsEncapsulation() {
+            var list = new ArrayList<>(steps);
+            request.setNextSteps(list);
+            list.clear();
+            assertEquals(steps, request.getNextSteps());
+            assertThrows(UnsupportedOperationException.class, () -> request.getNextSteps().clear());
+        }
+        @Test
+        void stepParamsEncapsulation() throws ValidationException {
+            var params = new String[] {"x"};
+            var step = new Request.Step("fn", params);
+            params[0] = "y";
+            assertTrue(Arrays.equals(new String[] {"x"}, step.getParams()));
+        }
+        @Test
+        void stepsAffectEquality() throws ValidationException {
+            var other = new Request("function", new String[] {"p1", "p2"}, cookies);
+            assertEquals(other, request);
+            request.setNextSteps(steps);
+            assertNotEquals(other, request);
+            other.setNextSteps(steps);
+            assertEquals(other, request);
+            assertEquals(other.hashCode(), request.hashCode());
+        }
+        @Test
+        void invalidStep() {
+            assertThrows(ValidationException.class, () -> new Request.Step("hi mom", new String[0]));
+            assertThrows(ValidationException.class, () -> new Request.Step("fn", new String[] {""}));
+        }
+        @Test
+        void nullSteps() {
+            assertThrows(NullPointerException.class, () -> request.setNextSteps(null));
+            assertThrows(NullPointerException.class, () -> request.setNextSteps(Arrays.asList((Request.Step) null)));
+            assertThrows(NullPointerException.class, () -> new Request.Step(null, new String[0]));
+            assertThrows(NullPointerException.class, () -> new Request.Step("fn", null));
+        }
+        @Test
+        void testToString() {
+            request.setNextSteps(steps);
+            assertEquals("REQUEST: GO function p1 p2 THEN two x THEN three Cookies=[bar=2,foo=1]", request.toString());
+        }
+    }
+
     @Test
     void testToString() {
         assertEquals("REQUEST: GO function p1 p2 Cookies=[bar=2,foo=1]", request.toString());
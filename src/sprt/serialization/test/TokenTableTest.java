@@ -0,0 +1,93 @@
+/* ***********************************************
+ *
+ * Author:      Kevin DeMars
+ * Assignment:  SPRT
+ * Class:       CSI 4321
+ *
+ * ***********************************************/
+
+package sprt.serialization.test;
+
+import org.junit.jupiter.api.Test;
+import sprt.serialization.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenTableTest {
+    // Tests that decoding a pinned function gives back the pinned instance
+    @Test
+    void pinnedFunction() throws ValidationException, IOException {
+        var pinned = new String("PinnedStep".toCharArray());
+        TokenTable.pin(pinned);
+        assertTrue(TokenTable.isPinned("PinnedStep"));
+        assertSame(pinned, decodeRequest("SPRT/1.0 Q RUN PinnedStep\r\n\r\n").getFunction());
+        assertSame(pinned, new RequestParser().parse(bytes("SPRT/1.0 Q RUN PinnedStep\r\n\r\n")).getFunction());
+    }
+
+    // Tests that pinning many tokens keeps all of them
+    @Test
+    void pinMany() {
+        for (int i = 0; i < 100; ++i)
+            TokenTable.pin("Many" + i);
+        for (int i = 0; i < 100; ++i)
+            assertTrue(TokenTable.isPinned("Many" + i));
+        assertFalse(TokenTable.isPinned("Many100"));
+    }
+
+    // Tests that repeated function and cookie names decode to the same instance
+    @Test
+    void repeatedNames() throws ValidationException, IOException {
+        var msg = "SPRT/1.0 Q BATCH Fn abc\r\nRUN Fn2 def\r\nkey=val\r\n\r\n";
+        for (var req2 : new Request[] { decodeRequest(msg), new RequestParser().parse(bytes(msg)) }) {
+            var req1 = decodeRequest(msg);
+            assertSame(req1.getFunction(), req2.getFunction());
+            assertSame(req1.getNextSteps().get(0).getFunction(), req2.getNextSteps().get(0).getFunction());
+            assertSame(cookieName(req1), cookieName(req2));
+        }
+        var resp1 = (Response) Message.decodeType(bytes("SPRT/1.0 R OK Fn Hi\r\n\r\n"), MessageType.Response);
+        var resp2 = (Response) Message.decodeType(bytes("SPRT/1.0 R OK Fn Hi\r\n\r\n"), MessageType.Response);
+        assertSame(resp1.getFunction(), resp2.getFunction());
+    }
+
+    // Tests that params and cookie values, which are mostly particular to a client, aren't interned
+    @Test
+    void valuesNotInterned() throws ValidationException, IOException {
+        var msg = "SPRT/1.0 Q RUN Fn abc\r\nkey=val\r\n\r\n";
+        for (var req2 : new Request[] { decodeRequest(msg), new RequestParser().parse(bytes(msg)) }) {
+            var req1 = decodeRequest(msg);
+            assertEquals(req1, req2);
+            assertNotSame(req1.getParams()[0], req2.getParams()[0]);
+            assertNotSame(req1.getCookieList().getValue("key"), req2.getCookieList().getValue("key"));
+        }
+    }
+
+    // Tests that long tokens still decode correctly
+    @Test
+    void longToken() throws ValidationException, IOException {
+        var fn = "F".repeat(TokenTable.MAX_TOKEN_LENGTH + 1);
+        assertEquals(fn, decodeRequest("SPRT/1.0 Q RUN " + fn + "\r\n\r\n").getFunction());
+    }
+
+    @Test
+    void pinInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> TokenTable.pin("not a token"));
+        assertThrows(NullPointerException.class, () -> TokenTable.pin((String) null));
+        assertThrows(NullPointerException.class, () -> TokenTable.pin((String[]) null));
+    }
+
+    private static Request decodeRequest(String str) throws ValidationException, IOException {
+        return (Request) Message.decodeType(bytes(str), MessageType.Request);
+    }
+
+    private static String cookieName(Request req) {
+        return req.getCookieList().getNames().iterator().next();
+    }
+
+    private static ByteBuffer bytes(String str) {
+        return ByteBuffer.wrap(str.getBytes(StandardCharsets.US_ASCII));
+    }
+}
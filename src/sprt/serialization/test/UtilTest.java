@@ -15,6 +15,7 @@ import org.junit.jupiter.params.provider.CsvSource;
 import static org.junit.jupiter.api.Assertions.*;
 import static sprt.serialization.Util.checkNull;
 import static sprt.serialization.Util.isAlnum;
+import static sprt.serialization.Util.isPrintable;
 
 
 public class UtilTest {
@@ -47,5 +48,19 @@ public class UtilTest {
         assertFalse(isAlnum('\t'));
     }
 
+    // Tests that the lookup table agrees with the definition for every char and byte
+    @Test
+    void charClassesMatchDefinition() {
+        for (int i = 0; i <= 0xFFFF; ++i) {
+            char c = (char) i;
+            boolean alnum = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+            assertEquals(alnum, isAlnum(c), "char " + i);
+            assertEquals(c >= 0x20 && c <= 0x7F, isPrintable(c), "char " + i);
+        }
+        for (int i = Byte.MIN_VALUE; i <= Byte.MAX_VALUE; ++i) {
+            assertEquals(isAlnum((char) (i & 0xFF)), isAlnum((byte) i), "byte " + i);
+        }
+    }
+
 
 }